@@ -0,0 +1,20 @@
+package net.pakl.levy;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/** Entry point of benchmarks.jar.  Takes the usual JMH command line (e.g. a benchmark regex,
+ * "-p n=16384", "-f 1") and always adds the GC profiler, so every result also reports the
+ * allocation rate per operation. */
+public class BenchmarkMain
+{
+    public static void main(String [] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,79 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Builds the networks the benchmarks run on and moves excitation in and out of them for
+ * either engine. */
+class BenchmarkNetworks
+{
+    /** Every benchmark wires from the same seed, so runs are comparable. */
+    static final long SEED = 20130605L;
+
+    /** Returns an uninitialized network, or throws if its synapses could not fit in this JVM's
+     * heap (JMH then reports the combination as failed and goes on to the next). */
+    static Net create(String engine, int n, double connectionProbability, double activity, int threads)
+    {
+        int synapsesPerNeuron = (int) (connectionProbability * n);
+        Wiring.checkStored(n, synapsesPerNeuron);
+        long synapses = (long) n * synapsesPerNeuron;
+        long bytesPerSynapse = engine.equalsIgnoreCase("array") ? 12 : 32;
+        long needed = synapses * bytesPerSynapse;
+        if (needed > Runtime.getRuntime().maxMemory() * 3 / 4)
+        {
+            throw new RuntimeException("n = " + n + ", connectionProbability = " + connectionProbability
+                    + " needs about " + (needed >> 20) + " MB for the " + engine + " engine; give the forks"
+                    + " more heap (-jvmArgsAppend -Xmx...) or leave this combination out with -p.");
+        }
+        Net net = Net.forEngine(engine);
+        net.numNeurons = n;
+        net.connectionProbability = connectionProbability;
+        net.desiredActivity = activity;
+        net.numThreads = threads;
+        net.seed = SEED;
+        return net;
+    }
+
+    /** A pattern with (int) (n * activity) randomly chosen neurons on. */
+    static boolean [] randomPattern(int n, double activity, SplittableRandom random)
+    {
+        boolean [] pattern = new boolean[n];
+        int remaining = (int) (n * activity);
+        while (remaining > 0)
+        {
+            int i = random.nextInt(n);
+            if (!pattern[i])
+            {
+                pattern[i] = true;
+                remaining--;
+            }
+        }
+        return pattern;
+    }
+
+    static double [] getExcitation(Net net)
+    {
+        if (net instanceof ArrayNet)
+        {
+            return ((ArrayNet) net).excitation.clone();
+        }
+        double [] excitation = new double[net.numNeurons];
+        for (int i = 0; i < excitation.length; i++)
+        {
+            excitation[i] = net.units.get(i).excitation;
+        }
+        return excitation;
+    }
+
+    static void setExcitation(Net net, double [] excitation)
+    {
+        if (net instanceof ArrayNet)
+        {
+            System.arraycopy(excitation, 0, ((ArrayNet) net).excitation, 0, excitation.length);
+            return;
+        }
+        for (int i = 0; i < excitation.length; i++)
+        {
+            net.units.get(i).excitation = excitation[i];
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/** The per-neuron update kernels of the array engines (see Kernels), scalar against vector,
+ * on n neurons of which a fraction activity fire.  The inhibitory benchmark first restores
+ * the excitation and flags the kernel clears (copies of n values, included in its time). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KernelBenchmark
+{
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    @Param({"1024", "16384", "262144"})
+    public int n;
+
+    @Param({"0.075"})
+    public double activity;
+
+    private Kernels k;
+    private double [] excitation;
+    private double [] savedExcitation;
+    private boolean [] externallyFired;
+    private boolean [] savedExternallyFired;
+    private double [] activation;
+    private double [] previousActivation;
+    private boolean [] fired;
+    private int [] firedList;
+    private double feedback;
+
+    @Setup
+    public void setUp()
+    {
+        k = Kernels.load(kernels);
+        SplittableRandom random = new SplittableRandom(BenchmarkNetworks.SEED);
+        savedExcitation = new double[n];
+        for (int i = 0; i < n; i++)
+        {
+            savedExcitation[i] = random.nextDouble() * 100;
+        }
+        savedExternallyFired = BenchmarkNetworks.randomPattern(n, activity, random);
+        excitation = new double[n];
+        externallyFired = new boolean[n];
+        activation = new double[n];
+        previousActivation = new double[n];
+        fired = new boolean[n];
+        firedList = new int[n];
+        // Let about activity of the neurons through: e/(e+feedback) > 0.5 when e > feedback.
+        feedback = 100 * (1 - activity);
+    }
+
+    @Benchmark
+    public int inhibitoryUpdate()
+    {
+        System.arraycopy(savedExcitation, 0, excitation, 0, n);
+        System.arraycopy(savedExternallyFired, 0, externallyFired, 0, n);
+        return k.inhibitoryUpdate(n, excitation, externallyFired, 1.0, feedback, 0, 0, 0.8,
+                activation, previousActivation, fired, firedList);
+    }
+
+    @Benchmark
+    public int competitiveUpdate()
+    {
+        return k.competitiveUpdate(n, savedExternallyFired, excitation, 0.8, activation, previousActivation, fired, firedList);
+    }
+}
@@ -0,0 +1,56 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/** SimulationLearning.offNoise(), applied to every external input pattern of a training trial,
+ * on a boolean pattern of n neurons and on the same pattern as a sparse index list. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OffNoiseBenchmark
+{
+    @Param({"1024", "16384", "65536", "262144"})
+    public int n;
+
+    @Param({"0.075", "0.15"})
+    public double activity;
+
+    @Param({"0.1"})
+    public double pExternalOffNoise;
+
+    private boolean [] pattern;
+    private int [] sparsePattern;
+    private int [] sparseResult;
+    private SplittableRandom random;
+
+    @Setup
+    public void setUp()
+    {
+        random = new SplittableRandom(BenchmarkNetworks.SEED);
+        pattern = BenchmarkNetworks.randomPattern(n, activity, random);
+        sparsePattern = new int[(int) (n * activity)];
+        int k = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (pattern[i]) sparsePattern[k++] = i;
+        }
+        sparseResult = new int[sparsePattern.length];
+    }
+
+    @Benchmark
+    public boolean [] offNoise()
+    {
+        return SimulationLearning.offNoise(pattern, pExternalOffNoise, random);
+    }
+
+    @Benchmark
+    public int offNoiseSparse()
+    {
+        return SimulationLearning.offNoise(sparsePattern, pExternalOffNoise, random, sparseResult);
+    }
+}
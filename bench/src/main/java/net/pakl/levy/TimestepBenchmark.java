@@ -0,0 +1,118 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/** The phases of one simulated timestep, on a network in which a random activity fraction
+ * of the neurons has just fired.  Nothing here changes which neurons fired, so every
+ * invocation does the same amount of work: feedforward() keeps adding onto the same
+ * excitation, and the update benchmarks first restore the excitation saved at setup
+ * (a copy of n doubles, included in their time). */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimestepBenchmark
+{
+    static final double LEARNING_RATE = 0.05;
+
+    @Param({"object", "array"})
+    public String engine;
+
+    @Param({"1024", "16384", "65536", "262144"})
+    public int n;
+
+    @Param({"0.01", "0.08"})
+    public double connectionProbability;
+
+    @Param({"0.075", "0.15"})
+    public double activity;
+
+    @Param({"1"})
+    public int threads;
+
+    private Net net;
+    private double [] excitation;
+    private double inhibitionPerFiring;
+    private long [] firingBits;
+
+    @Setup
+    public void setUp()
+    {
+        net = BenchmarkNetworks.create(engine, n, connectionProbability, activity, threads);
+        net.initialize();
+
+        net.isCompetitive = true;
+        net.externallyFire(BenchmarkNetworks.randomPattern(n, activity, new SplittableRandom(BenchmarkNetworks.SEED)));
+        net.update();
+        net.feedforward();
+        excitation = BenchmarkNetworks.getExcitation(net);
+
+        // Pick Kr so the inhibitory-constant update lets through about the same fraction:
+        // with K0 = Ki = 0 a neuron fires when its excitation exceeds Kr * numPreviouslyFired.
+        double [] sorted = excitation.clone();
+        Arrays.sort(sorted);
+        inhibitionPerFiring = sorted[n - 1 - (int) (n * activity)] / net.numPreviouslyFired;
+        net.K0 = 0;
+        net.Ki = 0;
+        net.numForcedToFire = 0;
+
+        firingBits = new long[(n + 63) >>> 6];
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        if (net.pool != null) net.pool.shutdown();
+    }
+
+    @Benchmark
+    public void feedforward()
+    {
+        net.feedforward();
+    }
+
+    @Benchmark
+    public void updateCompetitive()
+    {
+        BenchmarkNetworks.setExcitation(net, excitation);
+        net.isCompetitive = true;
+        net.update();
+    }
+
+    @Benchmark
+    public void updateInhibitory()
+    {
+        BenchmarkNetworks.setExcitation(net, excitation);
+        net.isCompetitive = false;
+        net.Kr = inhibitionPerFiring;
+        net.numPreviouslyFired = (int) (n * activity);
+        net.update();
+    }
+
+    /** learningRate stays 0 outside this benchmark, so the update benchmarks time selection alone. */
+    @Benchmark
+    public long learn()
+    {
+        net.learningRate = LEARNING_RATE;
+        long modified = net.learn();
+        net.learningRate = 0;
+        return modified;
+    }
+
+    @Benchmark
+    public String getFirings()
+    {
+        return net.getFirings();
+    }
+
+    @Benchmark
+    public long [] getFiringBits()
+    {
+        net.getFiringBits(firingBits);
+        return firingBits;
+    }
+}
@@ -0,0 +1,50 @@
+package net.pakl.levy;
+
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/** Net.initialize(): creating the neurons and drawing the random connectivity. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WiringBenchmark
+{
+    @Param({"object", "array"})
+    public String engine;
+
+    @Param({"1024", "16384", "65536", "262144"})
+    public int n;
+
+    @Param({"0.01", "0.08"})
+    public double connectionProbability;
+
+    @Param({"1"})
+    public int threads;
+
+    private Net net;
+
+    @Setup(Level.Invocation)
+    public void setUp()
+    {
+        // Drop the previous network first, so two never have to share the heap.
+        tearDown();
+        net = null;
+        net = BenchmarkNetworks.create(engine, n, connectionProbability, 0.075, threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        if (net != null && net.pool != null) net.pool.shutdown();
+    }
+
+    @Benchmark
+    public Net initialize()
+    {
+        net.initialize();
+        return net;
+    }
+}
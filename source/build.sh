@@ -1 +1,3 @@
 javac net/pakl/levy/*.java
+# Optional SIMD kernels (JDK 16 or later); run with java --add-modules jdk.incubator.vector to use them.
+javac --add-modules jdk.incubator.vector -cp . -d . ../vector/net/pakl/levy/*.java
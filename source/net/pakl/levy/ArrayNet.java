@@ -0,0 +1,631 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** The same Levy network as Net, but with the whole graph held in flat primitive arrays
+ * instead of Unit and Synapse objects.  Outgoing connections are stored in
+ * compressed-sparse-row layout: the synapses of neuron i occupy indices
+ * rowStart[i] .. rowStart[i+1]-1 of the targets and weights arrays, sorted by target.
+ * Select it with "engine = array" in levy.prop. */
+public class ArrayNet extends Net
+{
+    /** The Kernels named by kernels, which update() runs (see getUpdateKernels()). */
+    Kernels updateKernels;
+
+    /** Index of the first outgoing synapse of each neuron; rowStart[numNeurons] is the synapse count. */
+    int [] rowStart;
+
+    /** Postsynaptic neuron of each synapse. */
+    int [] targets;
+
+    /** Weight of each synapse, at weightPrecision. */
+    WeightStore weights;
+
+    double [] activation;
+    double [] previousActivation;
+    double [] excitation;
+    boolean [] fired;
+    boolean [] externallyFired;
+    boolean [] winners;
+
+    /** Incoming synapses of each neuron, built by the first learn(): the synapses onto
+     * neuron t are inSynapse[inStart[t] .. inStart[t+1]-1] (indices into targets and
+     * weights), from the presynaptic neurons in the same places of inSource. */
+    int [] inStart;
+    int [] inSynapse;
+    int [] inSource;
+
+    /** The firing neurons in ascending order, firedList[0..numFiredListed-1], kept by update()
+     * and divineInterventionFire() so the work of external input and output scales with
+     * activity; rebuilt from fired when firedListValid is false (e.g. after a checkpoint load). */
+    int [] firedList;
+    int numFiredListed;
+    boolean firedListValid = false;
+
+    /** With renumber, the neuron each position of these arrays holds (the neuron numbered
+     * originalIndex[i] by wiring and by everyone outside, e.g. input patterns and rasters),
+     * and the position of each neuron; both null when neurons are where wiring put them. */
+    int [] originalIndex;
+    int [] renumbered;
+
+    /** The firing neurons in feedforward() order, for feedforwardOnto(). */
+    private int [] sending;
+
+    /** Scratch space of sendingOrder(). */
+    private int [] firedByOriginal;
+    private long [] firedByOriginalBits;
+
+    /** With deltaFeedforward, the input sent by the neurons marked in inputFrom (listed in
+     * inputFromList[0..numInputFrom-1]), kept from one feedforward() to the next while
+     * recurrentInputValid, i.e. until the weights change. */
+    double [] recurrentInput;
+    boolean [] inputFrom;
+    int [] inputFromList;
+    int numInputFrom;
+    boolean recurrentInputValid = false;
+
+    private WorkerPool.Range feedforwardRange = new WorkerPool.Range()
+    {
+        public void run(int from, int to)
+        {
+            feedforwardOnto(from, to);
+        }
+    };
+
+    private WorkerPool.Range learnRange = new WorkerPool.Range()
+    {
+        public void run(int from, int to)
+        {
+            learnOnto(from, to);
+        }
+    };
+
+    /** Create neurons and connect them. */
+    public void initialize()
+    {
+        checkDeltaFeedforward();
+        updateKernels = Kernels.forName(kernels);
+        int numNeeded = (int) (connectionProbability * numNeurons);
+        Wiring.checkStored(numNeurons, numNeeded);
+        // Rows come back sorted by target; the order of a row does not affect any sum, and
+        // sorted rows let each thread of feedforwardParallel() find its targets by binary search.
+        targets = Wiring.connect(numNeurons, numNeeded, new RandomStreams(seed), workerPool());
+        weights = WeightStore.create(weightPrecision, targets.length, w0);
+        rowStart = new int[numNeurons+1];
+        for (int i = 0; i <= numNeurons; i++)
+        {
+            rowStart[i] = i * numNeeded;
+        }
+        if (!renumber.equalsIgnoreCase("none"))
+        {
+            renumber(Renumbering.order(renumber, numNeurons, rowStart, targets));
+        }
+        allocateState();
+    }
+
+    /** Moves neuron order[j] to position j, re-sorting each row by target.  Only for a newly
+     * wired network: the weights, all w0, stay where they are. */
+    void renumber(int [] order)
+    {
+        int [] position = Renumbering.inverse(order);
+        int [] newRowStart = new int[numNeurons+1];
+        int [] newTargets = new int[targets.length];
+        for (int j = 0; j < numNeurons; j++)
+        {
+            int i = order[j];
+            int s = newRowStart[j];
+            for (int r = rowStart[i]; r < rowStart[i+1]; r++)
+            {
+                newTargets[s++] = position[targets[r]];
+            }
+            Arrays.sort(newTargets, newRowStart[j], s);
+            newRowStart[j+1] = s;
+        }
+        rowStart = newRowStart;
+        targets = newTargets;
+        originalIndex = order;
+        renumbered = position;
+    }
+
+    /** The update kernels of this network, chosen by kernels when it is initialized (or, for
+     * a network restored from a checkpoint, when first used). */
+    Kernels getUpdateKernels()
+    {
+        if (updateKernels == null) updateKernels = Kernels.forName(kernels);
+        return updateKernels;
+    }
+
+    /** Position of the neuron numbered neuron outside. */
+    int positionOf(int neuron)
+    {
+        return (renumbered == null) ? neuron : renumbered[neuron];
+    }
+
+    /** Allocates the per-neuron arrays, all zero. */
+    void allocateState()
+    {
+        activation = new double[numNeurons];
+        previousActivation = new double[numNeurons];
+        excitation = new double[numNeurons];
+        fired = new boolean[numNeurons];
+        externallyFired = new boolean[numNeurons];
+        winners = new boolean[numNeurons];
+        firedList = new int[numNeurons];
+        numFiredListed = 0;
+        firedListValid = false;
+    }
+
+    /** Returns a network that shares this one's connectivity and weights but has its own
+     * copy of the current per-neuron state, so recall trials can run on several forks at
+     * once (see RecallBattery).  The weights must not change while forks are in use; a
+     * fork never learns (learningRate 0) and runs on one thread. */
+    public ArrayNet fork()
+    {
+        ArrayNet f = new ArrayNet();
+        shareWith(f);
+        return f;
+    }
+
+    /** Gives f this network's parameters, connectivity and weights, and a copy of its state. */
+    void shareWith(ArrayNet f)
+    {
+        f.numNeurons = numNeurons;
+        f.connectionProbability = connectionProbability;
+        f.K0 = K0;
+        f.Ki = Ki;
+        f.Kr = Kr;
+        f.w0 = w0;
+        f.desiredActivity = desiredActivity;
+        f.isCompetitive = isCompetitive;
+        f.preserveParameter = preserveParameter;
+        f.learningRate = 0;
+        f.numThreads = 1;
+        f.weightPrecision = weightPrecision;
+        f.seed = seed;
+        f.instrumentation.enabled = instrumentation.enabled;
+        f.deltaFeedforward = deltaFeedforward;
+        f.kernels = kernels;
+        f.updateKernels = getUpdateKernels();
+
+        f.rowStart = rowStart;
+        f.targets = targets;
+        f.weights = weights;
+        f.originalIndex = originalIndex;
+        f.renumbered = renumbered;
+
+        f.activation = activation.clone();
+        f.previousActivation = previousActivation.clone();
+        f.excitation = excitation.clone();
+        f.fired = fired.clone();
+        f.externallyFired = externallyFired.clone();
+        f.winners = new boolean[numNeurons];
+        f.firedList = new int[numNeurons];
+        f.firedListValid = false;
+        f.externalList = externalList.clone();
+        f.numExternal = numExternal;
+        f.numPreviouslyFired = numPreviouslyFired;
+        f.numForcedToFire = numForcedToFire;
+        f.numCurrentlyFired = numCurrentlyFired;
+    }
+
+    /** Brings firedList up to date and returns it. */
+    int [] firedList()
+    {
+        if (!firedListValid)
+        {
+            numFiredListed = 0;
+            for (int i = 0; i < numNeurons; i++)
+            {
+                if (fired[i]) firedList[numFiredListed++] = i;
+            }
+            firedListValid = true;
+        }
+        return firedList;
+    }
+
+    /** Calls feedforward on all the neurons, using numThreads threads; with deltaFeedforward
+     * and no learning the input comes from feedforwardDelta(). */
+    public void feedforward()
+    {
+        long start = instrumentation.begin();
+        long delivered;
+        if (deltaFeedforward && learningRate == 0)
+        {
+            delivered = feedforwardDelta();
+        }
+        else if (numThreads > 1)
+        {
+            delivered = feedforwardParallel();
+        }
+        else
+        {
+            delivered = feedforwardSingleThread();
+        }
+        instrumentation.end(Instrumentation.Phase.FEEDFORWARD, start, delivered);
+    }
+
+    /** The firing neurons in the order feedforward() adds up their input: ascending, by
+     * original number when renumbered, so that every sum is made in the same order (and so
+     * rounded the same) as without renumbering.  Sorting them is a pass over a bitset of
+     * numNeurons bits. */
+    int [] sendingOrder()
+    {
+        int [] list = firedList();
+        if (originalIndex == null) return list;
+        if (firedByOriginal == null)
+        {
+            firedByOriginal = new int[numNeurons];
+            firedByOriginalBits = new long[(numNeurons + 63) >>> 6];
+        }
+        long [] bits = firedByOriginalBits;
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int o = originalIndex[list[k]];
+            bits[o >>> 6] |= 1L << o;
+        }
+        int count = 0;
+        for (int w = 0; w < bits.length; w++)
+        {
+            long word = bits[w];
+            while (word != 0)
+            {
+                firedByOriginal[count++] = renumbered[(w << 6) + Long.numberOfTrailingZeros(word)];
+                word &= word - 1;
+            }
+            bits[w] = 0;
+        }
+        return firedByOriginal;
+    }
+
+    public long feedforwardSingleThread()
+    {
+        long delivered = 0;
+        int [] list = sendingOrder();
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int i = list[k];
+            weights.accumulate(rowStart[i], rowStart[i+1], targets, excitation);
+            delivered += rowStart[i+1] - rowStart[i];
+        }
+        return delivered;
+    }
+
+    /** Throws if deltaFeedforward is set without fixed16 weights, so the run fails before
+     * training rather than at its first testing trial. */
+    void checkDeltaFeedforward()
+    {
+        if (deltaFeedforward && !weightPrecision.equalsIgnoreCase("fixed16"))
+        {
+            throw new RuntimeException("deltaFeedforward needs weightPrecision = fixed16");
+        }
+    }
+
+    /** Brings recurrentInput up to date by taking out the input of the neurons that have
+     * stopped firing since it was last computed and adding that of the neurons that have
+     * started, then adds it to excitation; the work is proportional to the change in firing
+     * rather than to the firing.  The result is exactly what feedforwardSingleThread() gives
+     * because fixed16 weights are added as whole numbers of weight units, which double
+     * arithmetic adds and subtracts without rounding in any order; with any other precision
+     * the corrections would drift, so deltaFeedforward requires fixed16.  When at least as
+     * many neurons changed as are firing, the input is recomputed from scratch instead.
+     * Returns the number of synapses visited.  Runs on one thread. */
+    long feedforwardDelta()
+    {
+        if (recurrentInput == null)
+        {
+            if (!weights.getPrecision().equals("fixed16"))
+            {
+                throw new RuntimeException("deltaFeedforward needs weightPrecision = fixed16");
+            }
+            recurrentInput = new double[numNeurons];
+            inputFrom = new boolean[numNeurons];
+            inputFromList = new int[numNeurons];
+        }
+        int [] list = firedList();
+        int changed = 0;
+        for (int k = 0; k < numInputFrom; k++)
+        {
+            if (!fired[inputFromList[k]]) changed++;
+        }
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            if (!inputFrom[list[k]]) changed++;
+        }
+        // When most of the firing has changed, starting again from nothing is cheaper.
+        if (!recurrentInputValid || changed >= numFiredListed)
+        {
+            Arrays.fill(recurrentInput, 0);
+            for (int k = 0; k < numInputFrom; k++)
+            {
+                inputFrom[inputFromList[k]] = false;
+            }
+            numInputFrom = 0;
+            recurrentInputValid = true;
+        }
+
+        long visited = 0;
+        for (int k = 0; k < numInputFrom; k++)
+        {
+            int i = inputFromList[k];
+            if (!fired[i])
+            {
+                withdraw(i, recurrentInput);
+                inputFrom[i] = false;
+                visited += rowLength(i);
+            }
+        }
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int i = list[k];
+            if (!inputFrom[i])
+            {
+                deliver(i, recurrentInput);
+                inputFrom[i] = true;
+                visited += rowLength(i);
+            }
+        }
+        System.arraycopy(list, 0, inputFromList, 0, numFiredListed);
+        numInputFrom = numFiredListed;
+
+        for (int t = 0; t < numNeurons; t++)
+        {
+            excitation[t] += recurrentInput[t];
+        }
+        return visited;
+    }
+
+    /** Adds the outgoing weights of neuron i onto into. */
+    void deliver(int i, double [] into)
+    {
+        weights.accumulate(rowStart[i], rowStart[i+1], targets, into);
+    }
+
+    /** Subtracts the outgoing weights of neuron i from into. */
+    void withdraw(int i, double [] into)
+    {
+        weights.subtract(rowStart[i], rowStart[i+1], targets, into);
+    }
+
+    int rowLength(int i)
+    {
+        return rowStart[i+1] - rowStart[i];
+    }
+
+    /** Splits the postsynaptic neurons into one contiguous block per thread, so every
+     * excitation value is written by a single thread and still receives its inputs in
+     * ascending presynaptic order.  The sums are therefore bit-for-bit the same as
+     * feedforwardSingleThread() for any number of threads. */
+    public long feedforwardParallel()
+    {
+        sending = sendingOrder();
+        workerPool().forEachRange(0, numNeurons, feedforwardRange);
+        return spikesFromFired();
+    }
+
+    /** Number of synapses leaving the firing neurons. */
+    long spikesFromFired()
+    {
+        long delivered = 0;
+        int [] list = firedList();
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            delivered += rowStart[list[k]+1] - rowStart[list[k]];
+        }
+        return delivered;
+    }
+
+    /** Adds the input from every fired neuron onto the postsynaptic neurons in [from, to).
+     * Called with sending set to sendingOrder(). */
+    private void feedforwardOnto(int from, int to)
+    {
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int i = sending[k];
+            int start = firstTargetAtLeast(from, rowStart[i], rowStart[i+1]);
+            int end = firstTargetAtLeast(to, start, rowStart[i+1]);
+            weights.accumulate(start, end, targets, excitation);
+        }
+    }
+
+    /** Index of the first synapse in [start, end) whose target is >= neuron, or end if there is none. */
+    int firstTargetAtLeast(int neuron, int start, int end)
+    {
+        int lo = start;
+        int hi = end;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (targets[mid] < neuron) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    void updateNetworkAsCompetitive()
+    {
+        final int numDesiredToFire = (int) (numNeurons * desiredActivity);
+
+        for (int i = 0; i < numNeurons; i++)
+        {
+            if (externallyFired[i])
+            {
+                excitation[i] = Double.MAX_VALUE;
+                externallyFired[i] = false;
+            }
+        }
+
+        // Ranks 0..numDesiredToFire win, with ties at the cut-off broken at random.
+        kWinners.select(excitation, numNeurons, numDesiredToFire + 1, winners, originalIndex);
+
+        numFiredListed = getUpdateKernels().competitiveUpdate(numNeurons, winners, excitation, preserveParameter,
+                activation, previousActivation, fired, firedList);
+        numCurrentlyFired = numFiredListed;
+        firedListValid = true;
+        numPreviouslyFired = numCurrentlyFired;
+    }
+
+    void updateNetworkUsingInhibitoryConstants()
+    {
+        numFiredListed = getUpdateKernels().inhibitoryUpdate(numNeurons, excitation, externallyFired, weights.excitationScale(),
+                Kr * numPreviouslyFired, Ki * numForcedToFire, K0, preserveParameter,
+                activation, previousActivation, fired, firedList);
+        numCurrentlyFired = numFiredListed;
+        firedListValid = true;
+        numPreviouslyFired = numCurrentlyFired;
+    }
+
+    /** Levy's rule: move each weight onto a firing neuron toward the presynaptic previous
+     * activation.  Returns the number of synapses modified.  Only the incoming synapses of
+     * the firing neurons are visited, so the work is activity times fan-in rather than every
+     * synapse; each synapse is updated on its own, so the order (and the number of threads,
+     * which split the firing neurons) makes no difference to the weights. */
+    long learn()
+    {
+        recurrentInputValid = false;
+        if (inStart == null)
+        {
+            buildIncomingIndex();
+        }
+        int [] list = firedList();
+        if (numThreads > 1)
+        {
+            workerPool().forEachRange(0, numFiredListed, learnRange);
+        }
+        else
+        {
+            learnOnto(0, numFiredListed);
+        }
+        long modified = 0;
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            modified += inStart[list[k]+1] - inStart[list[k]];
+        }
+        return modified;
+    }
+
+    /** learn() on the incoming synapses of firedList[from..to-1]. */
+    private void learnOnto(int from, int to)
+    {
+        for (int k = from; k < to; k++)
+        {
+            int t = firedList[k];
+            weights.learnIncoming(inStart[t], inStart[t+1], inSynapse, inSource, previousActivation, learningRate);
+        }
+    }
+
+    /** Transposes targets into inStart, inSynapse and inSource, each neuron's incoming
+     * synapses in ascending presynaptic order. */
+    void buildIncomingIndex()
+    {
+        int synapses = rowStart[numNeurons];
+        int [] start = new int[numNeurons+1];
+        for (int s = 0; s < synapses; s++)
+        {
+            start[targets[s]+1]++;
+        }
+        for (int t = 0; t < numNeurons; t++)
+        {
+            start[t+1] += start[t];
+        }
+        int [] next = Arrays.copyOf(start, numNeurons);
+        int [] synapse = new int[synapses];
+        int [] source = new int[synapses];
+        for (int i = 0; i < numNeurons; i++)
+        {
+            for (int s = rowStart[i]; s < rowStart[i+1]; s++)
+            {
+                int j = next[targets[s]]++;
+                synapse[j] = s;
+                source[j] = i;
+            }
+        }
+        inSynapse = synapse;
+        inSource = source;
+        inStart = start;
+    }
+
+    /** Activates the specified neurons by clamping them on (in addition to any existing activity in the network) */
+    public void externallyFire(boolean [] firings)
+    {
+        numExternal = 0;
+        for (int i = 0; i < numNeurons; i++)
+        {
+            externallyFired[positionOf(i)] = firings[i];
+            if (firings[i]) rememberExternal(i);
+        }
+        numForcedToFire = numExternal;
+        instrumentation.forced(numExternal);
+    }
+
+    /** Activates (and de-activates) neurons without engaging the inhibition that would be due to external input. */
+    public void divineInterventionFire(boolean [] firings)
+    {
+        numExternal = 0;
+        for (int i = 0; i < numNeurons; i++)
+        {
+            externallyFired[positionOf(i)] = firings[i];
+            if (firings[i]) rememberExternal(i);
+        }
+        stopUnforcedFiring();
+        numForcedToFire = 0;
+        instrumentation.forced(numExternal);
+    }
+
+    /** Same as divineInterventionFire(boolean[]) with exactly the count distinct neurons in
+     * neurons[0..count-1] on, in time proportional to count plus the number of firing neurons. */
+    public void divineInterventionFire(int [] neurons, int count)
+    {
+        setExternallyFired(neurons, count);
+        stopUnforcedFiring();
+        numForcedToFire = 0;
+        instrumentation.forced(count);
+    }
+
+    void setExternallyFired(int neuron, boolean on)
+    {
+        externallyFired[positionOf(neuron)] = on;
+    }
+
+    /** Stops every firing neuron that is not externallyFired. */
+    private void stopUnforcedFiring()
+    {
+        int [] list = firedList();
+        int kept = 0;
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int i = list[k];
+            if (externallyFired[i]) list[kept++] = i;
+            else fired[i] = false;
+        }
+        numFiredListed = kept;
+    }
+
+    public void weightHistogram(long [] bins)
+    {
+        for (int s = 0; s < weights.size(); s++)
+        {
+            bins[bin(weights.get(s), bins.length)]++;
+        }
+    }
+
+    public String getFirings()
+    {
+        StringBuilder result = new StringBuilder(2 * numNeurons);
+        for (int i = 0; i < numNeurons; i++)
+        {
+            result.append(fired[positionOf(i)] ? "1 " : "0 ");
+        }
+        return result.toString();
+    }
+
+    public void getFiringBits(long [] firingBits)
+    {
+        Arrays.fill(firingBits, 0, (numNeurons + 63) >>> 6, 0L);
+        int [] list = firedList();
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            int i = (originalIndex == null) ? list[k] : originalIndex[list[k]];
+            firingBits[i >>> 6] |= 1L << i;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.pakl.levy;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/** Writes rasters with one bit per neuron per timestep.  The file is little-endian:
+ * <pre>
+ *   int  magic ("LVYR")       int  version (1)
+ *   int  numNeurons           int  timesteps per trial (as configured)
+ *   long number of rows       int  number of trials     int  reserved
+ *   rows: ceil(numNeurons/64) longs each, bit i of word i/64 set if neuron i fired
+ *   trials: one int per trial, the index of its first row
+ * </pre>
+ * Read it back, or convert it to the text format, with RasterReader. */
+public class BinaryRaster implements RasterSink
+{
+    public static final int MAGIC = 0x5259564C;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int wordsPerRow;
+    private long numRows = 0;
+    private int [] trialStarts = new int[16];
+    private int numTrials = 0;
+
+    public BinaryRaster(File file, int numNeurons, int timestepsPerTrial) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        wordsPerRow = (numNeurons + 63) >>> 6;
+        buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, 8 * wordsPerRow)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numNeurons).putInt(timestepsPerTrial);
+        buffer.putLong(0).putInt(0).putInt(0);
+    }
+
+    public void beginTrial()
+    {
+        if (numTrials == trialStarts.length) trialStarts = Arrays.copyOf(trialStarts, 2 * numTrials);
+        trialStarts[numTrials++] = (int) numRows;
+    }
+
+    public void record(long [] firingBits) throws IOException
+    {
+        if (buffer.remaining() < 8 * wordsPerRow) flush();
+        for (int w = 0; w < wordsPerRow; w++)
+        {
+            buffer.putLong(firingBits[w]);
+        }
+        numRows++;
+    }
+
+    private void flush() throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Appends the trial table and fills in the row and trial counts in the header. */
+    public void close() throws IOException
+    {
+        for (int t = 0; t < numTrials; t++)
+        {
+            if (buffer.remaining() < 4) flush();
+            buffer.putInt(trialStarts[t]);
+        }
+        flush();
+        buffer.putLong(numRows).putInt(numTrials).flip();
+        channel.write(buffer, 16);
+        channel.close();
+    }
+}
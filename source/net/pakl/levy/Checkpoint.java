@@ -0,0 +1,250 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/** Saves and restores the complete state of an ArrayNet (parameters, connectivity, weights,
+ * activations, firing flags and inhibition counters) through memory-mapped files, so a
+ * trained network can be reopened without being rebuilt by initialize().  The file is
+ * little-endian: a 128-byte header followed by the arrays, each starting on an 8-byte
+ * boundary, so on the usual little-endian hosts loading is a straight bulk copy out of the
+ * page cache.  completedTrials records how far training had got.  A renumbered network
+ * (see ArrayNet.renumber) is saved as it is laid out, followed by its originalIndex. */
+public class Checkpoint
+{
+    static final int MAGIC = 0x4359564C;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 128;
+
+    /** Largest piece of the file mapped at once. */
+    static final int WINDOW_BYTES = 1 << 30;
+
+    static final String [] PRECISIONS = { "double", "float", "fixed16" };
+
+    /** The restored network, ready to run. */
+    public ArrayNet net;
+
+    /** Number of training trials the network had completed when it was saved. */
+    public int completedTrials;
+
+    /** Writes net to file, replacing it atomically (after forcing the new one to disk) so a
+     * crash never leaves a partial checkpoint. */
+    public static void save(Net net, int completedTrials, File file) throws IOException
+    {
+        if (!(net instanceof ArrayNet) || net instanceof ProceduralNet)
+        {
+            throw new RuntimeException("Checkpoints need engine = array");
+        }
+        final ArrayNet a = (ArrayNet) net;
+        final int n = a.numNeurons;
+        final int synapses = a.targets.length;
+
+        File temporary = new File(file.getPath() + ".tmp");
+        FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            MappedByteBuffer headerWindow = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            ByteBuffer header = headerWindow.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(synapses);
+            header.putInt(precisionCode(a.weights.getPrecision())).putInt(a.isCompetitive ? 1 : 0);
+            header.putInt(completedTrials).putInt(a.numCurrentlyFired);
+            header.putDouble(a.connectionProbability).putDouble(a.K0).putDouble(a.Ki).putDouble(a.Kr);
+            header.putDouble(a.w0).putDouble(a.desiredActivity).putDouble(a.preserveParameter);
+            header.putDouble(a.learningRate).putDouble(a.numPreviouslyFired).putDouble(a.numForcedToFire);
+            header.putLong(a.seed);
+            header.putInt(a.originalIndex != null ? 1 : 0);
+
+            long position = HEADER_BYTES;
+            for (Section section : sections(a, n, synapses))
+            {
+                position = section.transfer(channel, FileChannel.MapMode.READ_WRITE, position);
+            }
+            // Everything must be on disk before the rename makes it the checkpoint.
+            headerWindow.force();
+            channel.force(true);
+        }
+        finally
+        {
+            channel.close();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Checkpoint load(File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) throw new IOException(file + " is not a network checkpoint");
+            int version = header.getInt();
+            if (version != VERSION) throw new IOException(file + " has unsupported checkpoint version " + version);
+
+            Checkpoint checkpoint = new Checkpoint();
+            ArrayNet a = new ArrayNet();
+            int n = header.getInt();
+            int synapses = header.getInt();
+            a.numNeurons = n;
+            a.weightPrecision = PRECISIONS[header.getInt()];
+            a.isCompetitive = header.getInt() != 0;
+            checkpoint.completedTrials = header.getInt();
+            a.numCurrentlyFired = header.getInt();
+            a.connectionProbability = header.getDouble();
+            a.K0 = header.getDouble();
+            a.Ki = header.getDouble();
+            a.Kr = header.getDouble();
+            a.w0 = header.getDouble();
+            a.desiredActivity = header.getDouble();
+            a.preserveParameter = header.getDouble();
+            a.learningRate = header.getDouble();
+            a.numPreviouslyFired = header.getDouble();
+            a.numForcedToFire = header.getDouble();
+            a.seed = header.getLong();
+            boolean renumbered = header.getInt() != 0;
+
+            a.rowStart = new int[n+1];
+            a.targets = new int[synapses];
+            a.weights = WeightStore.create(a.weightPrecision, synapses, 0);
+            a.allocateState();
+            if (renumbered) a.originalIndex = new int[n];
+            long position = HEADER_BYTES;
+            for (Section section : sections(a, n, synapses))
+            {
+                position = section.transfer(channel, FileChannel.MapMode.READ_ONLY, position);
+            }
+            if (renumbered) a.renumbered = Renumbering.inverse(a.originalIndex);
+            checkpoint.net = a;
+            return checkpoint;
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    static int precisionCode(String precision)
+    {
+        for (int i = 0; i < PRECISIONS.length; i++)
+        {
+            if (PRECISIONS[i].equalsIgnoreCase(precision)) return i;
+        }
+        throw new RuntimeException("Unknown weightPrecision " + precision);
+    }
+
+    /** The arrays of a, in file order. */
+    private static Section [] sections(final ArrayNet a, int n, int synapses)
+    {
+        Section [] sections = new Section[]
+        {
+            new Section(n + 1, 4)
+            {
+                void put(ByteBuffer b, int from, int count) { b.asIntBuffer().put(a.rowStart, from, count); }
+                void get(ByteBuffer b, int from, int count) { b.asIntBuffer().get(a.rowStart, from, count); }
+            },
+            new Section(synapses, 4)
+            {
+                void put(ByteBuffer b, int from, int count) { b.asIntBuffer().put(a.targets, from, count); }
+                void get(ByteBuffer b, int from, int count) { b.asIntBuffer().get(a.targets, from, count); }
+            },
+            new Section(synapses, a.weights.getBytesPerWeight())
+            {
+                void put(ByteBuffer b, int from, int count) { a.weights.put(b, from, count); }
+                void get(ByteBuffer b, int from, int count) { a.weights.get(b, from, count); }
+            },
+            new DoubleSection(a.activation),
+            new DoubleSection(a.previousActivation),
+            new DoubleSection(a.excitation),
+            new BooleanSection(a.fired),
+            new BooleanSection(a.externallyFired),
+        };
+        if (a.originalIndex == null) return sections;
+        sections = Arrays.copyOf(sections, sections.length + 1);
+        sections[sections.length - 1] = new Section(n, 4)
+        {
+            void put(ByteBuffer b, int from, int count) { b.asIntBuffer().put(a.originalIndex, from, count); }
+            void get(ByteBuffer b, int from, int count) { b.asIntBuffer().get(a.originalIndex, from, count); }
+        };
+        return sections;
+    }
+
+    /** One array of the checkpoint, copied through mapped windows of at most WINDOW_BYTES. */
+    abstract static class Section
+    {
+        final int length;
+        final int elementBytes;
+
+        Section(int length, int elementBytes)
+        {
+            this.length = length;
+            this.elementBytes = elementBytes;
+        }
+
+        abstract void put(ByteBuffer buffer, int from, int count);
+
+        abstract void get(ByteBuffer buffer, int from, int count);
+
+        /** Writes (READ_WRITE) or reads (READ_ONLY) this section at position and returns the
+         * position of the next section. */
+        long transfer(FileChannel channel, FileChannel.MapMode mode, long position) throws IOException
+        {
+            int perWindow = WINDOW_BYTES / elementBytes;
+            for (int from = 0; from < length; from += perWindow)
+            {
+                int count = Math.min(perWindow, length - from);
+                MappedByteBuffer mapped = channel.map(mode, position + (long) from * elementBytes, (long) count * elementBytes);
+                ByteBuffer window = mapped.order(ByteOrder.LITTLE_ENDIAN);
+                if (mode == FileChannel.MapMode.READ_ONLY)
+                {
+                    get(window, from, count);
+                }
+                else
+                {
+                    put(window, from, count);
+                    mapped.force();
+                }
+            }
+            long end = position + (long) length * elementBytes;
+            return (end + 7) & ~7L;
+        }
+    }
+
+    static class DoubleSection extends Section
+    {
+        final double [] array;
+
+        DoubleSection(double [] array)
+        {
+            super(array.length, 8);
+            this.array = array;
+        }
+
+        void put(ByteBuffer b, int from, int count) { b.asDoubleBuffer().put(array, from, count); }
+
+        void get(ByteBuffer b, int from, int count) { b.asDoubleBuffer().get(array, from, count); }
+    }
+
+    static class BooleanSection extends Section
+    {
+        final boolean [] array;
+
+        BooleanSection(boolean [] array)
+        {
+            super(array.length, 1);
+            this.array = array;
+        }
+
+        void put(ByteBuffer b, int from, int count)
+        {
+            for (int i = from; i < from + count; i++) b.put(array[i] ? (byte) 1 : (byte) 0);
+        }
+
+        void get(ByteBuffer b, int from, int count)
+        {
+            for (int i = from; i < from + count; i++) array[i] = b.get() != 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Decides when training has stopped changing the network's behaviour, so that
+ * SimulationLearning can skip to the final training trial.  In levy.prop,
+ * <pre>
+ *   convergenceSimilarity = 0.98    # off unless given
+ *   convergencePatience = 5         # default
+ * </pre>
+ * compares the firing of each training trial with the trial before it, timestep by
+ * timestep: training has converged once the mean cosine similarity of the two has been at
+ * least convergenceSimilarity for convergencePatience trials in a row.  It is computed from
+ * the firing bits as the trial runs, at the cost of one trial's raster in memory. */
+public class Convergence
+{
+    /** Similarity that counts as unchanged, or NaN when not checking. */
+    private final double threshold;
+    private final int patience;
+    private final int words;
+
+    /** Firing of the trial before the current one, or null at the start. */
+    private long [][] previous;
+    private long [][] current;
+    private double similaritySum = 0;
+    private int timesteps = 0;
+    private int trialsUnchanged = 0;
+    private double lastSimilarity = Double.NaN;
+
+    public Convergence(Properties p, int timestepsPerTrial, int numNeurons)
+    {
+        threshold = (p.getProperty("convergenceSimilarity")!=null) ? Double.parseDouble(p.getProperty("convergenceSimilarity").trim()) : Double.NaN;
+        patience = (p.getProperty("convergencePatience")!=null) ? Integer.parseInt(p.getProperty("convergencePatience").trim()) : 5;
+        if (patience < 1) throw new RuntimeException("convergencePatience must be at least 1");
+        words = (numNeurons + 63) / 64;
+        if (isEnabled()) current = new long[timestepsPerTrial][words];
+    }
+
+    public boolean isEnabled()
+    {
+        return !Double.isNaN(threshold);
+    }
+
+    /** Takes in the firing of timestep t of the current trial. */
+    public void timestep(int t, long [] firingBits)
+    {
+        System.arraycopy(firingBits, 0, current[t], 0, words);
+        if (previous == null) return;
+        long [] before = previous[t];
+        int both = 0;
+        int now = 0;
+        int then = 0;
+        for (int w = 0; w < words; w++)
+        {
+            both += Long.bitCount(firingBits[w] & before[w]);
+            now += Long.bitCount(firingBits[w]);
+            then += Long.bitCount(before[w]);
+        }
+        if (now == 0 && then == 0) similaritySum += 1;
+        else if (both > 0) similaritySum += both / Math.sqrt((double) now * then);
+        timesteps++;
+    }
+
+    /** Ends the current trial and returns true if training has converged. */
+    public boolean endTrial()
+    {
+        if (previous != null)
+        {
+            lastSimilarity = similaritySum / timesteps;
+            trialsUnchanged = (lastSimilarity >= threshold) ? trialsUnchanged + 1 : 0;
+        }
+        long [][] swap = previous;
+        previous = current;
+        current = (swap != null) ? swap : new long[previous.length][words];
+        similaritySum = 0;
+        timesteps = 0;
+        return trialsUnchanged >= patience;
+    }
+
+    /** Mean similarity of the last trial to the one before it. */
+    public double getLastSimilarity()
+    {
+        return lastSimilarity;
+    }
+}
@@ -0,0 +1,483 @@
+package net.pakl.levy;
+
+import java.io.*;
+import java.util.*;
+
+/** A Levy network split over several worker processes (see DistributedWorker), for
+ * networks too big for one JVM or one machine's cores.  Worker w owns the contiguous
+ * neurons numNeurons*w/numWorkers .. numNeurons*(w+1)/numWorkers - 1 and the synapses
+ * onto them; this object only coordinates.  Each timestep it broadcasts the external
+ * input, collects the neurons each worker fires and broadcasts the combined list, from
+ * which every worker delivers the next input onto its own neurons.  In competitive mode
+ * the workers first send their candidates for the k largest excitations, and this object
+ * picks the global threshold and breaks the ties at it with kWinners.random exactly as
+ * KWinners would, so every raster is the same as with engine = array and the same seed.
+ * In levy.prop,
+ * <pre>
+ *   engine = distributed
+ *   workers = 4
+ *   transport = process        # or threads, listen (see WorkerTransport)
+ *   workerPort = 0             # for listen: the port workers connect to
+ *   workerOptions = -Xmx8g     # for process: JVM options of each worker
+ * </pre>
+ * Checkpoints, fork() and the object engine's per-unit access are not available. */
+public class DistributedNet extends Net
+{
+    public int numWorkers = 2;
+    public String transportName = "process";
+    public int workerPort = 0;
+    public String workerOptions = "";
+
+    WorkerTransport transport;
+    int synapsesPerNeuron;
+
+    /** Worker w owns neurons from[w] .. from[w+1]-1. */
+    int [] from;
+
+    /** Number of synapses onto each neuron, reported by its worker. */
+    int [] fanIn;
+
+    /** The neurons that fired on the last timestep, ascending. */
+    int [] firedList;
+    int numFiredListed = 0;
+    boolean [] mark;
+
+    /** Competitive mode: each worker's local threshold, ties at it and excitations above it
+     * (in candidates[candidateStart[w] ..]), and its share of the global cut-off. */
+    private double [] localThreshold;
+    private int [] localTied;
+    private int [] localAbove;
+    private int [] candidateStart;
+    private double [] candidates = new double[0];
+    private double [] pool = new double[0];
+    private int [] tiedAtThreshold;
+    private int [] winningTies = new int[0];
+    private final KWinners selector = new KWinners();
+
+    /** Wires the network on the workers. */
+    public void initialize()
+    {
+        if (deltaFeedforward) throw new RuntimeException("deltaFeedforward needs engine = array or procedural");
+        if (!renumber.equalsIgnoreCase("none")) throw new RuntimeException("renumber needs engine = array");
+        synapsesPerNeuron = (int) (connectionProbability * numNeurons);
+        Wiring.check(numNeurons, synapsesPerNeuron);
+        numWorkers = Math.max(1, Math.min(numWorkers, numNeurons));
+        from = new int[numWorkers+1];
+        for (int w = 0; w <= numWorkers; w++)
+        {
+            from[w] = (int) ((long) numNeurons * w / numWorkers);
+        }
+        fanIn = new int[numNeurons];
+        firedList = new int[numNeurons];
+        mark = new boolean[numNeurons];
+        localThreshold = new double[numWorkers];
+        localTied = new int[numWorkers];
+        localAbove = new int[numWorkers];
+        candidateStart = new int[numWorkers+1];
+        tiedAtThreshold = new int[numWorkers];
+
+        try
+        {
+            transport = WorkerTransport.create(transportName);
+            transport.port = workerPort;
+            transport.workerOptions = workerOptions;
+            transport.open(numWorkers);
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataOutputStream out = transport.out[w];
+                out.write(DistributedWorker.CONFIGURE);
+                out.writeInt(numNeurons);
+                out.writeInt(synapsesPerNeuron);
+                out.writeLong(seed);
+                out.writeUTF(weightPrecision);
+                out.writeDouble(w0);
+                out.writeDouble(K0);
+                out.writeDouble(Ki);
+                out.writeDouble(Kr);
+                out.writeDouble(preserveParameter);
+                out.writeInt(from[w]);
+                out.writeInt(from[w+1]);
+                out.flush();
+            }
+            for (int w = 0; w < numWorkers; w++)
+            {
+                for (int i = from[w]; i < from[w+1]; i++)
+                {
+                    fanIn[i] = transport.in[w].readInt();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // Let the workers already started go rather than leave them waiting.
+            RuntimeException lost = lostWorkers(e);
+            close();
+            throw lost;
+        }
+    }
+
+    /** Stops the workers (and any threads, see Net.close). */
+    public void close()
+    {
+        super.close();
+        if (transport != null) transport.close();
+        transport = null;
+    }
+
+    private RuntimeException lostWorkers(IOException e)
+    {
+        Exception failure = (transport == null) ? null : transport.failure();
+        if (failure != null) return new RuntimeException("A distributed worker failed: " + failure, failure);
+        return new RuntimeException("Lost contact with the distributed workers: " + e.getMessage(), e);
+    }
+
+    /** Sends message and neurons[0..count-1] to every worker. */
+    private void broadcast(byte message, int [] neurons, int count) throws IOException
+    {
+        for (int w = 0; w < numWorkers; w++)
+        {
+            DataOutputStream out = transport.out[w];
+            out.write(message);
+            out.writeInt(count);
+            for (int k = 0; k < count; k++)
+            {
+                out.writeInt(neurons[k]);
+            }
+            out.flush();
+        }
+    }
+
+    private void broadcast(byte message) throws IOException
+    {
+        for (int w = 0; w < numWorkers; w++)
+        {
+            transport.out[w].write(message);
+            transport.out[w].flush();
+        }
+    }
+
+    /** Has every worker add the input of the neurons that fired onto its own neurons. */
+    public long feedforwardSingleThread()
+    {
+        try
+        {
+            broadcast(DistributedWorker.FEEDFORWARD);
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+        return (long) numFiredListed * synapsesPerNeuron;
+    }
+
+    void updateNetworkUsingInhibitoryConstants()
+    {
+        try
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataOutputStream out = transport.out[w];
+                out.write(DistributedWorker.UPDATE_INHIBITORY);
+                out.writeDouble(numPreviouslyFired);
+                out.writeDouble(numForcedToFire);
+                out.flush();
+            }
+            gatherFired();
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+    }
+
+    /** KWinners.select() over the excitation held by all the workers.  The k largest
+     * excitations overall are among the k largest of each worker, so each worker sends its
+     * own k-th largest value (its local threshold), how many of its neurons are tied at it
+     * and the fewer than k values above it.  The k-th largest of those candidates is the
+     * global threshold.  The ties at it are numbered in neuron order (worker by worker,
+     * since the workers own ascending ranges) and chosen by the same selection sampling as
+     * KWinners, drawing the same numbers from kWinners.random; each worker is then told the
+     * threshold and which of its ties won. */
+    void updateNetworkAsCompetitive()
+    {
+        final int numDesiredToFire = (int) (numNeurons * desiredActivity);
+        final int k = numDesiredToFire + 1;
+        try
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataOutputStream out = transport.out[w];
+                out.write(DistributedWorker.UPDATE_COMPETITIVE);
+                out.writeInt(k);
+                out.flush();
+            }
+            int numCandidates = 0;
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataInputStream in = transport.in[w];
+                candidateStart[w] = numCandidates;
+                localThreshold[w] = in.readDouble();
+                localTied[w] = in.readInt();
+                localAbove[w] = in.readInt();
+                if (candidates.length < numCandidates + localAbove[w])
+                {
+                    candidates = Arrays.copyOf(candidates, Math.max(2 * candidates.length, numCandidates + localAbove[w]));
+                }
+                for (int a = 0; a < localAbove[w]; a++)
+                {
+                    candidates[numCandidates++] = in.readDouble();
+                }
+            }
+            candidateStart[numWorkers] = numCandidates;
+
+            double threshold;
+            if (k >= numNeurons) threshold = Double.NEGATIVE_INFINITY;
+            else if (k <= 0) threshold = Double.POSITIVE_INFINITY;
+            else threshold = globalThreshold(k);
+
+            int numAbove = 0;
+            int numTied = 0;
+            for (int w = 0; w < numWorkers; w++)
+            {
+                int above = 0;
+                int tied = 0;
+                if (localThreshold[w] > threshold)
+                {
+                    above = localAbove[w] + localTied[w];
+                }
+                else if (localThreshold[w] == threshold)
+                {
+                    above = localAbove[w];
+                    tied = localTied[w];
+                }
+                else
+                {
+                    for (int c = candidateStart[w]; c < candidateStart[w+1]; c++)
+                    {
+                        if (candidates[c] > threshold) above++;
+                        else if (candidates[c] == threshold) tied++;
+                    }
+                }
+                numAbove += above;
+                numTied += tied;
+                tiedAtThreshold[w] = tied;
+            }
+
+            // Selection sampling, as in KWinners: each tie wins with probability needed/remaining.
+            int tiesNeeded = (k >= numNeurons || k <= 0) ? 0 : k - numAbove;
+            int numWinningTies = 0;
+            if (winningTies.length < Math.max(0, tiesNeeded)) winningTies = new int[tiesNeeded];
+            int remaining = numTied;
+            for (int rank = 0; tiesNeeded > 0; rank++)
+            {
+                if ((tiesNeeded == remaining) || (kWinners.random.nextInt(remaining) < tiesNeeded))
+                {
+                    winningTies[numWinningTies++] = rank;
+                    tiesNeeded--;
+                }
+                remaining--;
+            }
+
+            int firstRank = 0;
+            int nextWinner = 0;
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataOutputStream out = transport.out[w];
+                int lastRank = firstRank + tiedAtThreshold[w];
+                int first = nextWinner;
+                while (nextWinner < numWinningTies && winningTies[nextWinner] < lastRank) nextWinner++;
+                out.write(DistributedWorker.DECIDE);
+                out.writeDouble(threshold);
+                out.writeInt(nextWinner - first);
+                for (int q = first; q < nextWinner; q++)
+                {
+                    out.writeInt(winningTies[q] - firstRank);
+                }
+                out.flush();
+                firstRank = lastRank;
+            }
+            gatherFired();
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+    }
+
+    /** The k-th largest value among the workers' candidates: every value above a local
+     * threshold, and as many copies of the threshold as complete that worker's k largest. */
+    private double globalThreshold(int k)
+    {
+        int size = 0;
+        for (int w = 0; w < numWorkers; w++)
+        {
+            size += localAbove[w] + Math.min(localTied[w], k - localAbove[w]);
+        }
+        if (pool.length < size) pool = new double[size];
+        int n = 0;
+        for (int w = 0; w < numWorkers; w++)
+        {
+            for (int c = candidateStart[w]; c < candidateStart[w+1]; c++)
+            {
+                pool[n++] = candidates[c];
+            }
+            for (int copies = Math.min(localTied[w], k - localAbove[w]); copies > 0; copies--)
+            {
+                pool[n++] = localThreshold[w];
+            }
+        }
+        return selector.select(pool, n, n - k);
+    }
+
+    /** Reads each worker's fired neurons into firedList and sends the whole list back to
+     * every worker. */
+    private void gatherFired() throws IOException
+    {
+        numFiredListed = 0;
+        for (int w = 0; w < numWorkers; w++)
+        {
+            DataInputStream in = transport.in[w];
+            int count = in.readInt();
+            for (int q = 0; q < count; q++)
+            {
+                firedList[numFiredListed++] = in.readInt();
+            }
+        }
+        broadcast(DistributedWorker.FIRED, firedList, numFiredListed);
+        numCurrentlyFired = numFiredListed;
+        numPreviouslyFired = numCurrentlyFired;
+    }
+
+    /** Levy's rule, applied by each worker to the synapses onto its firing neurons. */
+    long learn()
+    {
+        long modified = 0;
+        try
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                DataOutputStream out = transport.out[w];
+                out.write(DistributedWorker.LEARN);
+                out.writeDouble(learningRate);
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+        for (int q = 0; q < numFiredListed; q++)
+        {
+            modified += fanIn[firedList[q]];
+        }
+        return modified;
+    }
+
+    public void externallyFire(boolean [] firings)
+    {
+        externallyFire(listOf(firings), numExternal);
+    }
+
+    public void externallyFire(int [] neurons, int count)
+    {
+        try
+        {
+            broadcast(DistributedWorker.EXTERNAL, neurons, count);
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+        numForcedToFire = count;
+        instrumentation.forced(count);
+    }
+
+    public void divineInterventionFire(boolean [] firings)
+    {
+        divineInterventionFire(listOf(firings), numExternal);
+    }
+
+    public void divineInterventionFire(int [] neurons, int count)
+    {
+        try
+        {
+            broadcast(DistributedWorker.DIVINE, neurons, count);
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+        for (int k = 0; k < count; k++)
+        {
+            mark[neurons[k]] = true;
+        }
+        int kept = 0;
+        for (int q = 0; q < numFiredListed; q++)
+        {
+            if (mark[firedList[q]]) firedList[kept++] = firedList[q];
+        }
+        numFiredListed = kept;
+        for (int k = 0; k < count; k++)
+        {
+            mark[neurons[k]] = false;
+        }
+        numForcedToFire = 0;
+        instrumentation.forced(count);
+    }
+
+    /** The neurons on in firings, left in externalList[0..numExternal-1]. */
+    private int [] listOf(boolean [] firings)
+    {
+        numExternal = 0;
+        for (int i = 0; i < numNeurons; i++)
+        {
+            if (firings[i]) rememberExternal(i);
+        }
+        return externalList;
+    }
+
+    public void weightHistogram(long [] bins)
+    {
+        try
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                transport.out[w].write(DistributedWorker.HISTOGRAM);
+                transport.out[w].writeInt(bins.length);
+                transport.out[w].flush();
+            }
+            for (int w = 0; w < numWorkers; w++)
+            {
+                for (int b = 0; b < bins.length; b++)
+                {
+                    bins[b] += transport.in[w].readLong();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw lostWorkers(e);
+        }
+    }
+
+    public String getFirings()
+    {
+        long [] bits = new long[(numNeurons + 63) >>> 6];
+        getFiringBits(bits);
+        StringBuilder result = new StringBuilder(2 * numNeurons);
+        for (int i = 0; i < numNeurons; i++)
+        {
+            result.append(((bits[i >>> 6] & (1L << i)) != 0) ? "1 " : "0 ");
+        }
+        return result.toString();
+    }
+
+    public void getFiringBits(long [] firingBits)
+    {
+        Arrays.fill(firingBits, 0, (numNeurons + 63) >>> 6, 0L);
+        for (int q = 0; q < numFiredListed; q++)
+        {
+            firingBits[firedList[q] >>> 6] |= 1L << firedList[q];
+        }
+    }
+}
@@ -0,0 +1,414 @@
+package net.pakl.levy;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/** One process (or thread) of a DistributedNet.  It owns the neurons lo..hi-1: their
+ * excitation and the synapses onto them, i.e. the slice of every neuron's outgoing row
+ * that lands in [lo, hi).  It also keeps the activation of all neurons and the list of
+ * all neurons fired on the last timestep, both rebuilt from the fired list the
+ * coordinator broadcasts, so each timestep the only traffic is lists of neuron indices
+ * (plus, in competitive mode, the candidates for the k-th largest excitation).
+ * <pre>
+ *   java -cp classes net.pakl.levy.DistributedWorker host port
+ * </pre>
+ * connects to a coordinator listening on host:port ("transport = listen") and serves it
+ * until it disconnects. */
+public class DistributedWorker
+{
+    // Messages from the coordinator.
+    static final byte CONFIGURE = 1;
+    static final byte EXTERNAL = 2;
+    static final byte DIVINE = 3;
+    static final byte FEEDFORWARD = 4;
+    static final byte UPDATE_INHIBITORY = 5;
+    static final byte UPDATE_COMPETITIVE = 6;
+    static final byte DECIDE = 7;
+    static final byte FIRED = 8;
+    static final byte LEARN = 9;
+    static final byte HISTOGRAM = 10;
+    static final byte QUIT = 11;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    int numNeurons;
+    int lo;
+    int hi;
+    double K0;
+    double Ki;
+    double Kr;
+    double preserveParameter;
+
+    /** Synapses onto the owned neurons: those of neuron i are rowStart[i] .. rowStart[i+1]-1,
+     * to the owned neurons targets[s] + lo, in ascending order. */
+    int [] rowStart;
+    int [] targets;
+    WeightStore weights;
+
+    /** Of every neuron. */
+    double [] activation;
+    double [] previousActivation;
+    int [] firedList = new int[0];
+    int numFired = 0;
+    boolean [] mark;
+
+    /** Of the owned neurons, by index - lo. */
+    double [] excitation;
+    boolean [] externallyFired;
+    int [] externalList;
+    int numExternal = 0;
+    int [] ownedFired;
+
+    /** Incoming synapses of each owned neuron, as in ArrayNet: those onto lo + j are
+     * inSynapse[inStart[j] .. inStart[j+1]-1], from the neurons in the same places of inSource. */
+    int [] inStart;
+    int [] inSynapse;
+    int [] inSource;
+
+    /** The neurons of the last external input. */
+    private int [] listed = new int[0];
+
+    private final KWinners selector = new KWinners();
+    private double [] scratch;
+    private int [] winningTies = new int[0];
+
+    public DistributedWorker(InputStream in, OutputStream out)
+    {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    public static void main(String args[]) throws IOException
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: DistributedWorker host port");
+            System.exit(1);
+        }
+        Socket socket = new Socket(args[0], Integer.parseInt(args[1]));
+        socket.setTcpNoDelay(true);
+        try
+        {
+            new DistributedWorker(socket.getInputStream(), socket.getOutputStream()).serve();
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /** Answers the coordinator's messages until QUIT or the end of the stream. */
+    public void serve() throws IOException
+    {
+        while (true)
+        {
+            int message = in.read();
+            if (message < 0 || message == QUIT) return;
+            switch (message)
+            {
+                case CONFIGURE: configure(); break;
+                case EXTERNAL: external(false); break;
+                case DIVINE: external(true); break;
+                case FEEDFORWARD: feedforward(); break;
+                case UPDATE_INHIBITORY: updateInhibitory(); break;
+                case UPDATE_COMPETITIVE: updateCompetitive(); break;
+                case FIRED: fired(); break;
+                case LEARN: learn(); break;
+                case HISTOGRAM: histogram(); break;
+                default: throw new IOException("Unknown message " + message + " from coordinator");
+            }
+        }
+    }
+
+    /** Wires the slice of the network onto lo..hi-1 and answers with the fan-in of each
+     * owned neuron. */
+    private void configure() throws IOException
+    {
+        numNeurons = in.readInt();
+        int synapsesPerNeuron = in.readInt();
+        long seed = in.readLong();
+        String precision = in.readUTF();
+        double w0 = in.readDouble();
+        K0 = in.readDouble();
+        Ki = in.readDouble();
+        Kr = in.readDouble();
+        preserveParameter = in.readDouble();
+        lo = in.readInt();
+        hi = in.readInt();
+
+        // Every row is drawn in full, as Wiring.connect() would, and cut down to [lo, hi).
+        RandomStreams streams = new RandomStreams(seed);
+        long [] chosen = new long[(numNeurons + 63) >>> 6];
+        int [] row = new int[synapsesPerNeuron];
+        int [] fanIn = new int[hi - lo];
+        rowStart = new int[numNeurons+1];
+        int [] slices = new int[(int) Math.min(Integer.MAX_VALUE - 8, (long) synapsesPerNeuron * (hi - lo) + 16)];
+        int count = 0;
+        for (int i = 0; i < numNeurons; i++)
+        {
+            rowStart[i] = count;
+            Wiring.connectNeuron(i, numNeurons, synapsesPerNeuron, streams.stream(RandomStreams.Purpose.WIRING, i), chosen, row, 0);
+            int s = Arrays.binarySearch(row, lo);
+            if (s < 0) s = -s - 1;
+            for (; s < synapsesPerNeuron && row[s] < hi; s++)
+            {
+                if (count == slices.length) slices = Arrays.copyOf(slices, slices.length + (slices.length >> 1) + 16);
+                slices[count++] = row[s] - lo;
+                fanIn[row[s] - lo]++;
+            }
+        }
+        rowStart[numNeurons] = count;
+        targets = Arrays.copyOf(slices, count);
+        weights = WeightStore.create(precision, count, w0);
+
+        inStart = new int[hi - lo + 1];
+        for (int j = 0; j < hi - lo; j++)
+        {
+            inStart[j+1] = inStart[j] + fanIn[j];
+        }
+        int [] next = Arrays.copyOf(inStart, hi - lo);
+        inSynapse = new int[count];
+        inSource = new int[count];
+        for (int i = 0; i < numNeurons; i++)
+        {
+            for (int s = rowStart[i]; s < rowStart[i+1]; s++)
+            {
+                int q = next[targets[s]]++;
+                inSynapse[q] = s;
+                inSource[q] = i;
+            }
+        }
+
+        activation = new double[numNeurons];
+        previousActivation = new double[numNeurons];
+        mark = new boolean[numNeurons];
+        excitation = new double[hi - lo];
+        externallyFired = new boolean[hi - lo];
+        externalList = new int[hi - lo];
+        ownedFired = new int[hi - lo];
+        scratch = new double[hi - lo];
+
+        for (int j = 0; j < hi - lo; j++)
+        {
+            out.writeInt(fanIn[j]);
+        }
+        out.flush();
+    }
+
+    /** Clamps the owned ones among the listed neurons on for the next update; for divine
+     * intervention, also stops every firing neuron that is not listed. */
+    private void external(boolean divine) throws IOException
+    {
+        int count = in.readInt();
+        for (int k = 0; k < numExternal; k++)
+        {
+            externallyFired[externalList[k]] = false;
+        }
+        numExternal = 0;
+        if (listed.length < count) listed = new int[count];
+        for (int k = 0; k < count; k++)
+        {
+            int i = in.readInt();
+            listed[k] = i;
+            if (i >= lo && i < hi && !externallyFired[i - lo])
+            {
+                externallyFired[i - lo] = true;
+                externalList[numExternal++] = i - lo;
+            }
+        }
+        if (!divine) return;
+
+        for (int k = 0; k < count; k++)
+        {
+            mark[listed[k]] = true;
+        }
+        int kept = 0;
+        for (int k = 0; k < numFired; k++)
+        {
+            int i = firedList[k];
+            if (mark[i]) firedList[kept++] = i;
+        }
+        numFired = kept;
+        for (int k = 0; k < count; k++)
+        {
+            mark[listed[k]] = false;
+        }
+    }
+
+    /** Adds the input of every firing neuron onto the owned neurons, in ascending
+     * presynaptic order as ArrayNet does, so the sums are the same bit for bit. */
+    private void feedforward()
+    {
+        for (int k = 0; k < numFired; k++)
+        {
+            int i = firedList[k];
+            weights.accumulate(rowStart[i], rowStart[i+1], targets, excitation);
+        }
+    }
+
+    /** ArrayNet.updateNetworkUsingInhibitoryConstants() on the owned neurons, answering
+     * with the ones that fire. */
+    private void updateInhibitory() throws IOException
+    {
+        double numPreviouslyFired = in.readDouble();
+        double numForcedToFire = in.readDouble();
+        final double scale = weights.excitationScale();
+        int count = 0;
+        for (int j = 0; j < hi - lo; j++)
+        {
+            boolean fires;
+            if (externallyFired[j])
+            {
+                fires = true;
+            }
+            else
+            {
+                double e = excitation[j] * scale;
+                e = e / (e + Kr * numPreviouslyFired + Ki * numForcedToFire + K0);
+                fires = (e > 0.5);
+            }
+            excitation[j] = 0;
+            externallyFired[j] = false;
+            if (fires) ownedFired[count++] = j + lo;
+        }
+        numExternal = 0;
+        writeList(ownedFired, count);
+    }
+
+    /** First half of the k-winners selection (see DistributedNet.updateNetworkAsCompetitive).
+     * Answers with the owned neurons' share of the k largest excitations: threshold, the
+     * k-th largest owned excitation (or the smallest, with fewer than k owned neurons);
+     * the number tied at it; and the excitations above it.  Then waits for the coordinator's
+     * DECIDE, fires the owned neurons above its global threshold and the winning ties at
+     * it, and answers with them. */
+    private void updateCompetitive() throws IOException
+    {
+        int k = in.readInt();
+        int owned = hi - lo;
+        for (int q = 0; q < numExternal; q++)
+        {
+            excitation[externalList[q]] = Double.MAX_VALUE;
+            externallyFired[externalList[q]] = false;
+        }
+        numExternal = 0;
+
+        if (owned > 0)
+        {
+            System.arraycopy(excitation, 0, scratch, 0, owned);
+            double threshold = selector.select(scratch, owned, Math.max(0, owned - Math.max(k, 1)));
+            int numTied = 0;
+            int numAbove = 0;
+            for (int j = 0; j < owned; j++)
+            {
+                if (excitation[j] > threshold) scratch[numAbove++] = excitation[j];
+                else if (excitation[j] == threshold) numTied++;
+            }
+            out.writeDouble(threshold);
+            out.writeInt(numTied);
+            out.writeInt(numAbove);
+            for (int a = 0; a < numAbove; a++)
+            {
+                out.writeDouble(scratch[a]);
+            }
+        }
+        out.flush();
+
+        if (in.read() != DECIDE) throw new IOException("Expected DECIDE from coordinator");
+        double threshold = in.readDouble();
+        int numWinningTies = in.readInt();
+        if (winningTies.length < numWinningTies) winningTies = new int[numWinningTies];
+        for (int w = 0; w < numWinningTies; w++)
+        {
+            winningTies[w] = in.readInt();
+        }
+
+        int count = 0;
+        int tie = 0;
+        int nextWinner = 0;
+        for (int j = 0; j < owned; j++)
+        {
+            double e = excitation[j];
+            if (e > threshold)
+            {
+                ownedFired[count++] = j + lo;
+            }
+            else if (e == threshold)
+            {
+                if (nextWinner < numWinningTies && winningTies[nextWinner] == tie)
+                {
+                    ownedFired[count++] = j + lo;
+                    nextWinner++;
+                }
+                tie++;
+            }
+            excitation[j] = 0;
+        }
+        writeList(ownedFired, count);
+    }
+
+    /** Takes the neurons fired on this timestep, in ascending order, and moves every
+     * neuron's activation on as ArrayNet.update() does. */
+    private void fired() throws IOException
+    {
+        int count = in.readInt();
+        if (firedList.length < count) firedList = new int[Math.max(count, Math.min(numNeurons, 2 * count))];
+        for (int k = 0; k < count; k++)
+        {
+            firedList[k] = in.readInt();
+        }
+        numFired = count;
+        int k = 0;
+        for (int i = 0; i < numNeurons; i++)
+        {
+            previousActivation[i] = activation[i];
+            if (k < count && firedList[k] == i)
+            {
+                activation[i] = 1.0;
+                k++;
+            }
+            else
+            {
+                activation[i] = activation[i] * preserveParameter;
+            }
+        }
+    }
+
+    /** Levy's rule on the synapses onto the owned neurons that fired. */
+    private void learn() throws IOException
+    {
+        double rate = in.readDouble();
+        for (int k = 0; k < numFired; k++)
+        {
+            int i = firedList[k];
+            if (i < lo || i >= hi) continue;
+            weights.learnIncoming(inStart[i - lo], inStart[i - lo + 1], inSynapse, inSource, previousActivation, rate);
+        }
+    }
+
+    /** Answers with Net.weightHistogram() of the synapses onto the owned neurons. */
+    private void histogram() throws IOException
+    {
+        long [] bins = new long[in.readInt()];
+        for (int s = 0; s < weights.size(); s++)
+        {
+            bins[Net.bin(weights.get(s), bins.length)]++;
+        }
+        for (long count : bins)
+        {
+            out.writeLong(count);
+        }
+        out.flush();
+    }
+
+    private void writeList(int [] list, int count) throws IOException
+    {
+        out.writeInt(count);
+        for (int k = 0; k < count; k++)
+        {
+            out.writeInt(list[k]);
+        }
+        out.flush();
+    }
+}
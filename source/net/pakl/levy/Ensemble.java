@@ -0,0 +1,117 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/** Runs many independent SimulationLearning runs of one levy.prop inside a single JVM,
+ * a bounded number at a time, replacing one JVM per run directory.  Run i (1-based) is
+ * written to PREFIX_ii/ together with its own levy.prop (including the seed it used, so
+ * it can be rerun alone) and its progress log run.log.
+ * <pre>  java net.pakl.levy.Ensemble [runs=50] [inParallel=cores] [prefix=run]</pre>
+ * The run seeds are derived from "seed" in levy.prop, or from a random seed if absent.
+ * Afterwards the final training trials of all runs, kept in memory, go through
+ * SimilarityAnalysis (timesteps similarityStart..similarityEnd of levy.prop, by default
+ * 25..75), which writes similarity.txt and curve.txt. */
+public class Ensemble
+{
+    public static void main(String args[]) throws Exception
+    {
+        int runs = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int inParallel = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String prefix = (args.length > 2) ? args[2] : "run";
+
+        Properties settings = SimulationLearning.loadProperties(new File("levy.prop"));
+        long baseSeed = (settings.getProperty("seed") != null) ? Long.parseLong(settings.getProperty("seed").trim()) : new Random().nextLong();
+        RandomStreams streams = new RandomStreams(baseSeed);
+        System.err.println("Running " + runs + " simulations, " + inParallel + " at a time (base seed " + baseSeed + ")");
+
+        long startTime = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(inParallel);
+        List<Future<Long>> results = new ArrayList<Future<Long>>();
+        List<MemoryRaster> finalTrains = new ArrayList<MemoryRaster>();
+        for (int i = 1; i <= runs; i++)
+        {
+            final Properties runSettings = new Properties();
+            runSettings.putAll(settings);
+            runSettings.setProperty("seed", Long.toString(streams.simulationSeed(i)));
+            final File directory = new File(prefix + "_" + ((i < 10) ? "0" : "") + i);
+            final int run = i;
+            final MemoryRaster finalTrain = new MemoryRaster(Integer.parseInt(settings.getProperty("n").trim()));
+            finalTrains.add(finalTrain);
+            results.add(pool.submit(new Callable<Long>()
+            {
+                public Long call() throws Exception
+                {
+                    return runOne("Run " + run, runSettings, directory, Collections.singletonMap("finaltrain", finalTrain));
+                }
+            }));
+        }
+        pool.shutdown();
+
+        long timesteps = 0;
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++)
+        {
+            try
+            {
+                timesteps += results.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                failed++;
+                System.err.println("Run " + (i+1) + " failed: " + e.getCause());
+            }
+        }
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0d;
+        System.out.println("Total run time: " + seconds + " seconds for " + (runs - failed) + " runs ("
+                + Math.round(timesteps / seconds) + " timesteps/s overall)");
+        if (failed > 0) System.exit(1);
+
+        SimilarityAnalysis analysis = new SimilarityAnalysis();
+        if (settings.getProperty("similarityStart") != null) analysis.start = Integer.parseInt(settings.getProperty("similarityStart").trim());
+        if (settings.getProperty("similarityEnd") != null) analysis.end = Integer.parseInt(settings.getProperty("similarityEnd").trim());
+        WorkerPool analysisPool = new WorkerPool(inParallel);
+        long beforeAnalysis = System.currentTimeMillis();
+        analysis.addRuns(finalTrains, analysisPool);
+        analysis.write(new File("."));
+        analysisPool.shutdown();
+        System.out.println("Similarity analysis took " + (System.currentTimeMillis() - beforeAnalysis) + " ms (similarity.txt, curve.txt)");
+    }
+
+    /** Runs one simulation (called name in messages) in directory, keeping a copy in memory
+     * of each raster named in keep (e.g. "finaltrain"), and returns the number of timesteps
+     * it simulated. */
+    static long runOne(String name, Properties settings, File directory, final Map<String, MemoryRaster> keep) throws Exception
+    {
+        directory.mkdirs();
+        OutputStream propCopy = new FileOutputStream(new File(directory, "levy.prop"));
+        settings.store(propCopy, name);
+        propCopy.close();
+
+        long startTime = System.currentTimeMillis();
+        SimulationLearning simulation = new SimulationLearning(settings)
+        {
+            RasterSink openRaster(String name, int numNeurons, int timestepsPerTrial) throws IOException
+            {
+                RasterSink file = super.openRaster(name, numNeurons, timestepsPerTrial);
+                return keep.containsKey(name) ? new TeeRaster(file, keep.get(name)) : file;
+            }
+        };
+        simulation.outputDirectory = directory;
+        simulation.log = new PrintStream(new FileOutputStream(new File(directory, "run.log")));
+        try
+        {
+            simulation.run();
+        }
+        finally
+        {
+            simulation.log.close();
+        }
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0d;
+        long timesteps = simulation.getTimestepsSimulated();
+        System.out.println(name + " (" + directory + "): " + seconds + " seconds, "
+                + Math.round(timesteps / seconds) + " timesteps/s");
+        return timesteps;
+    }
+}
@@ -0,0 +1,182 @@
+package net.pakl.levy;
+
+import java.io.*;
+import jdk.jfr.*;
+
+/** Per-phase timings and event counts of one network.  Counting is off unless enabled is
+ * set ("instrument = true" in levy.prop), in which case writeSummary() reports the totals
+ * at the end of a run.  Independently, every phase and timestep is published as a JFR
+ * event (net.pakl.levy.Phase, net.pakl.levy.Timestep) whenever a flight recording has
+ * them enabled, e.g. java -XX:StartFlightRecording=filename=run.jfr ...  When neither is
+ * on, each phase costs one check and no clock reads. */
+public class Instrumentation
+{
+    /** The parts of a timestep that are timed, with what their count measures. */
+    public enum Phase
+    {
+        FEEDFORWARD("feedforward", "spikes delivered"),
+        UPDATE("update", "neurons fired"),
+        LEARNING("learning", "synapses modified"),
+        OUTPUT("output", "raster rows written");
+
+        final String label;
+        final String countLabel;
+
+        Phase(String label, String countLabel)
+        {
+            this.label = label;
+            this.countLabel = countLabel;
+        }
+    }
+
+    /** Returned by begin() when nothing is recording. */
+    static final long INACTIVE = Long.MIN_VALUE;
+
+    /** Accumulate the totals reported by writeSummary(). */
+    public boolean enabled = false;
+
+    private final long [] nanos = new long[Phase.values().length];
+    private final long [] calls = new long[Phase.values().length];
+    private final long [] counts = new long[Phase.values().length];
+
+    private long timesteps = 0;
+    private long totalActivity = 0;
+    private int minActivity = Integer.MAX_VALUE;
+    private int maxActivity = 0;
+    private long forcedFirings = 0;
+    private int forcedThisTimestep = 0;
+
+    private static final PhaseEvent PHASE_EVENTS = new PhaseEvent();
+
+    @Name("net.pakl.levy.Phase")
+    @Label("Simulation Phase")
+    @Category("Levy Network")
+    @StackTrace(false)
+    static class PhaseEvent extends jdk.jfr.Event
+    {
+        @Label("Phase")
+        String phase;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        /** Spikes delivered, neurons fired, synapses modified or rows written; see Phase. */
+        @Label("Count")
+        long count;
+    }
+
+    @Name("net.pakl.levy.Timestep")
+    @Label("Simulation Timestep")
+    @Category("Levy Network")
+    @StackTrace(false)
+    static class TimestepEvent extends jdk.jfr.Event
+    {
+        @Label("Neurons Fired")
+        int activity;
+
+        @Label("Neurons Forced To Fire")
+        int forced;
+    }
+
+    /** Start of a phase, to be passed to end(); INACTIVE unless counting or recording. */
+    public long begin()
+    {
+        if (enabled || PHASE_EVENTS.isEnabled()) return System.nanoTime();
+        return INACTIVE;
+    }
+
+    /** Closes the phase opened by begin(), crediting it with count (see Phase). */
+    public void end(Phase phase, long start, long count)
+    {
+        if (start == INACTIVE) return;
+        long elapsed = System.nanoTime() - start;
+        if (enabled)
+        {
+            nanos[phase.ordinal()] += elapsed;
+            calls[phase.ordinal()]++;
+            counts[phase.ordinal()] += count;
+        }
+        PhaseEvent event = new PhaseEvent();
+        if (event.isEnabled())
+        {
+            event.phase = phase.label;
+            event.elapsed = elapsed;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    /** Called for every neuron clamped on by external input. */
+    public void forced(int count)
+    {
+        forcedThisTimestep += count;
+    }
+
+    /** Closes a timestep in which activity neurons fired. */
+    public void timestep(int activity)
+    {
+        if (enabled)
+        {
+            timesteps++;
+            totalActivity += activity;
+            minActivity = Math.min(minActivity, activity);
+            maxActivity = Math.max(maxActivity, activity);
+            forcedFirings += forcedThisTimestep;
+        }
+        TimestepEvent event = new TimestepEvent();
+        if (event.isEnabled())
+        {
+            event.activity = activity;
+            event.forced = forcedThisTimestep;
+            event.commit();
+        }
+        forcedThisTimestep = 0;
+    }
+
+    /** Adds the totals of other (e.g. of a network fork) to these. */
+    public synchronized void add(Instrumentation other)
+    {
+        for (int p = 0; p < nanos.length; p++)
+        {
+            nanos[p] += other.nanos[p];
+            calls[p] += other.calls[p];
+            counts[p] += other.counts[p];
+        }
+        timesteps += other.timesteps;
+        totalActivity += other.totalActivity;
+        minActivity = Math.min(minActivity, other.minActivity);
+        maxActivity = Math.max(maxActivity, other.maxActivity);
+        forcedFirings += other.forcedFirings;
+    }
+
+    public long getTimesteps() { return timesteps; }
+
+    public long getNanos(Phase phase) { return nanos[phase.ordinal()]; }
+
+    public long getCount(Phase phase) { return counts[phase.ordinal()]; }
+
+    public long getForcedFirings() { return forcedFirings; }
+
+    /** Writes a table of time and counts per phase, plus activity statistics, for a network of numNeurons. */
+    public void writeSummary(PrintStream out, int numNeurons)
+    {
+        long total = 0;
+        for (long n : nanos) total += n;
+        out.println("Instrumentation summary (" + timesteps + " timesteps)");
+        out.println(String.format("  %-12s %12s %7s %12s %16s", "phase", "time (ms)", "share", "us/call", "count"));
+        for (Phase phase : Phase.values())
+        {
+            int p = phase.ordinal();
+            out.println(String.format("  %-12s %12.1f %6.1f%% %12.2f %16d %s", phase.label, nanos[p] / 1e6,
+                    total == 0 ? 0 : 100.0 * nanos[p] / total, calls[p] == 0 ? 0 : nanos[p] / 1e3 / calls[p],
+                    counts[p], phase.countLabel));
+        }
+        if (timesteps > 0)
+        {
+            out.println(String.format("  activity per timestep: mean %.2f%%, min %.2f%%, max %.2f%%",
+                    100.0 * totalActivity / timesteps / numNeurons, 100.0 * minActivity / numNeurons, 100.0 * maxActivity / numNeurons));
+        }
+        out.println("  neurons forced to fire: " + forcedFirings);
+    }
+}
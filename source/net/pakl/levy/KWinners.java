@@ -0,0 +1,140 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Picks the k most excited neurons for competitive (k-winners-take-all) activity control
+ * in expected linear time and without allocating after the first call.  The k-th largest
+ * excitation is found by quickselect on a scratch copy; neurons above it always win, and
+ * the remaining places are given to a uniformly random subset of the neurons tied at it. */
+public class KWinners
+{
+    /** Source of tie-breaking decisions; simulations give each trial its own TIE_BREAK stream. */
+    public SplittableRandom random = new SplittableRandom();
+
+    private double [] scratch = new double[0];
+    private long [] tieKeys = new long[0];
+
+    /** Pivot choice only affects speed, so it uses its own generator to keep the
+     * tie-breaking stream independent of the data. */
+    private long pivotState = 0x9E3779B97F4A7C15L;
+
+    /** Marks the k largest of excitation[0..n-1] in winners (clearing the rest) and returns
+     * the number of winners, which is min(k, n). */
+    public int select(double [] excitation, int n, int k, boolean [] winners)
+    {
+        return select(excitation, n, k, winners, null);
+    }
+
+    /** select() for neurons kept out of their own order, neuron number[i] at index i (or in
+     * order if number is null): the ties are decided in ascending number, drawing the same
+     * random numbers as select() on the same excitation indexed by number. */
+    public int select(double [] excitation, int n, int k, boolean [] winners, int [] number)
+    {
+        if (k >= n)
+        {
+            Arrays.fill(winners, 0, n, true);
+            return n;
+        }
+        if (k <= 0)
+        {
+            Arrays.fill(winners, 0, n, false);
+            return 0;
+        }
+
+        if (scratch.length < n) scratch = new double[n];
+        System.arraycopy(excitation, 0, scratch, 0, n);
+        double threshold = select(scratch, n, n - k);
+
+        int numAbove = 0;
+        int numTied = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (excitation[i] > threshold) numAbove++;
+            else if (excitation[i] == threshold) numTied++;
+        }
+
+        int tiesNeeded = k - numAbove;
+        if (number != null && tiesNeeded > 0)
+        {
+            if (tieKeys.length < numTied) tieKeys = new long[numTied];
+            int t = 0;
+            for (int i = 0; i < n; i++)
+            {
+                double e = excitation[i];
+                winners[i] = (e > threshold);
+                if (e == threshold) tieKeys[t++] = ((long) number[i] << 32) | i;
+            }
+            Arrays.sort(tieKeys, 0, t);
+            for (int j = 0; j < t && tiesNeeded > 0; j++)
+            {
+                int i = (int) tieKeys[j];
+                winners[i] = (tiesNeeded == numTied) || (random.nextInt(numTied) < tiesNeeded);
+                if (winners[i]) tiesNeeded--;
+                numTied--;
+            }
+            return k;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            double e = excitation[i];
+            if (e > threshold)
+            {
+                winners[i] = true;
+            }
+            else if (e == threshold && tiesNeeded > 0)
+            {
+                // Selection sampling: each tie wins with probability needed/remaining.
+                winners[i] = (tiesNeeded == numTied) || (random.nextInt(numTied) < tiesNeeded);
+                if (winners[i]) tiesNeeded--;
+                numTied--;
+            }
+            else
+            {
+                winners[i] = false;
+            }
+        }
+        return k;
+    }
+
+    /** Returns the value that would sit at index rank if a[0..n-1] were sorted ascending,
+     * partially reordering a in the process. */
+    double select(double [] a, int n, int rank)
+    {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo < hi)
+        {
+            pivotState ^= pivotState << 13;
+            pivotState ^= pivotState >>> 7;
+            pivotState ^= pivotState << 17;
+            double pivot = a[lo + (int) ((pivotState >>> 1) % (hi - lo + 1))];
+
+            // Three-way partition, so long runs of equal values (e.g. zero excitation) stay linear.
+            int lt = lo;
+            int gt = hi;
+            int i = lo;
+            while (i <= gt)
+            {
+                if (a[i] < pivot)
+                {
+                    double tmp = a[lt]; a[lt] = a[i]; a[i] = tmp;
+                    lt++;
+                    i++;
+                }
+                else if (a[i] > pivot)
+                {
+                    double tmp = a[gt]; a[gt] = a[i]; a[i] = tmp;
+                    gt--;
+                }
+                else
+                {
+                    i++;
+                }
+            }
+            if (rank < lt) hi = lt - 1;
+            else if (rank > gt) lo = gt + 1;
+            else return pivot;
+        }
+        return a[lo];
+    }
+}
@@ -0,0 +1,100 @@
+package net.pakl.levy;
+
+/** The dense per-neuron pass of the array engines' update() in either mode: threshold,
+ * activation decay, reset and listing (counting) the firing neurons.  This class runs it as
+ * a plain loop.  VectorKernels, built from the vector directory against the
+ * jdk.incubator.vector module, does the arithmetic with SIMD instructions and is used
+ * instead when it is on the class path and the JVM was started with --add-modules
+ * jdk.incubator.vector.  Both do the same IEEE operations on every neuron, so the results
+ * are identical.  "kernels = scalar" (or vector, default auto) in levy.prop chooses for
+ * the network of that run (Net.kernels); networks in the same JVM may differ. */
+public class Kernels
+{
+    /** The kernels "auto" chooses in this JVM. */
+    static final Kernels DEFAULT = load("auto");
+
+    /** Returns the named kernels: "scalar", "vector" (throws if unavailable) or "auto"
+     * (vector when available). */
+    public static Kernels load(String name)
+    {
+        if (name.equalsIgnoreCase("scalar")) return new Kernels();
+        if (!name.equalsIgnoreCase("vector") && !name.equalsIgnoreCase("auto"))
+        {
+            throw new RuntimeException("Unknown kernels \"" + name + "\" (expected auto, scalar or vector)");
+        }
+        try
+        {
+            return (Kernels) Class.forName("net.pakl.levy.VectorKernels").getDeclaredConstructor().newInstance();
+        }
+        catch (Throwable e)
+        {
+            // Not compiled in, or the jdk.incubator.vector module was not added.
+            if (name.equalsIgnoreCase("auto")) return new Kernels();
+            throw new RuntimeException("kernels = vector needs VectorKernels on the class path and"
+                    + " java --add-modules jdk.incubator.vector (" + e + ")");
+        }
+    }
+
+    /** load(name), sharing DEFAULT for "auto". */
+    public static Kernels forName(String name)
+    {
+        return name.equalsIgnoreCase("auto") ? DEFAULT : load(name);
+    }
+
+    public String getName()
+    {
+        return "scalar";
+    }
+
+    /** ArrayNet.updateNetworkUsingInhibitoryConstants() over neurons 0..n-1: a neuron fires if
+     * it is externally fired or if e / (((e + feedback) + feedforward) + shunting) > 0.5,
+     * where e = excitation * scale.  Moves activation into previousActivation, sets fired and
+     * activation (1 if fired, else decayed by preserve), clears excitation and
+     * externallyFired, and lists the firing neurons in ascending order in firedList.
+     * Returns their number. */
+    public int inhibitoryUpdate(int n, double [] excitation, boolean [] externallyFired, double scale,
+            double feedback, double feedforward, double shunting, double preserve,
+            double [] activation, double [] previousActivation, boolean [] fired, int [] firedList)
+    {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+        {
+            previousActivation[i] = activation[i];
+            boolean fires;
+            if (externallyFired[i])
+            {
+                fires = true;
+            }
+            else
+            {
+                double e = excitation[i] * scale;
+                e = e / (e + feedback + feedforward + shunting);
+                fires = (e > 0.5);
+            }
+            fired[i] = fires;
+            activation[i] = fires ? 1.0 : activation[i] * preserve;
+            excitation[i] = 0;
+            externallyFired[i] = false;
+            if (fires) firedList[count++] = i;
+        }
+        return count;
+    }
+
+    /** The pass of ArrayNet.updateNetworkAsCompetitive() after selection: the neurons marked
+     * in winners fire, as in inhibitoryUpdate(). */
+    public int competitiveUpdate(int n, boolean [] winners, double [] excitation, double preserve,
+            double [] activation, double [] previousActivation, boolean [] fired, int [] firedList)
+    {
+        int count = 0;
+        for (int i = 0; i < n; i++)
+        {
+            previousActivation[i] = activation[i];
+            boolean fires = winners[i];
+            fired[i] = fires;
+            activation[i] = fires ? 1.0 : activation[i] * preserve;
+            excitation[i] = 0;
+            if (fires) firedList[count++] = i;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,58 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Keeps a raster in memory as bit-packed rows, for analysis without a file round trip. */
+public class MemoryRaster implements RasterSink
+{
+    private final int numNeurons;
+    private final List<long []> rows = new ArrayList<long []>();
+    private int [] trialStarts = new int[16];
+    private int numTrials = 0;
+
+    public MemoryRaster(int numNeurons)
+    {
+        this.numNeurons = numNeurons;
+    }
+
+    public void beginTrial()
+    {
+        if (numTrials == trialStarts.length) trialStarts = Arrays.copyOf(trialStarts, 2 * numTrials);
+        trialStarts[numTrials++] = rows.size();
+    }
+
+    public void record(long [] firingBits)
+    {
+        rows.add(Arrays.copyOf(firingBits, (numNeurons + 63) >>> 6));
+    }
+
+    public void close()
+    {
+    }
+
+    public int getNumNeurons()
+    {
+        return numNeurons;
+    }
+
+    public int getNumRows()
+    {
+        return rows.size();
+    }
+
+    /** The stored row; callers must not modify it. */
+    public long [] getRow(int row)
+    {
+        return rows.get(row);
+    }
+
+    public int getNumTrials()
+    {
+        return numTrials;
+    }
+
+    public int getTrialStart(int trial)
+    {
+        return trialStarts[trial];
+    }
+}
@@ -42,6 +42,32 @@ public class Net
     /** Rate of synaptic modification. */
     public double learningRate = 0;
     
+    /** Number of threads to spread wiring and feedforward() over.  The object engine only
+     * parallelises wiring; the array engine gives identical results for any number. */
+    public int numThreads = 1;
+
+    /** Storage precision of the synaptic weights: "double", "float" or "fixed16" (16-bit
+     * fixed point in [0,1]).  Only the array engine supports anything but double. */
+    public String weightPrecision = "double";
+
+    /** Array engines with fixed16 weights: while learningRate is 0, let feedforward() correct
+     * the previous timestep's input for the neurons that stopped and started firing instead
+     * of adding up the input of every firing neuron again (see ArrayNet.feedforwardDelta). */
+    public boolean deltaFeedforward = false;
+
+    /** Array engine: after wiring, renumber the neurons so that connected neurons sit close
+     * together in memory ("rcm", see Renumbering), or leave them ("none").  Input patterns,
+     * rasters and every other result still use the original numbers. */
+    public String renumber = "none";
+
+    /** Array engines: per-neuron update kernels, "auto", "scalar" or "vector" (see Kernels). */
+    public String kernels = "auto";
+
+    /** Seed from which the connectivity is drawn (see RandomStreams). */
+    public long seed = new Random().nextLong();
+
+    WorkerPool pool;
+
     /** Number of neurons firing on last timestep to be scaled by recurrent inhibition. */
     public double numPreviouslyFired = 0;
 
@@ -50,39 +76,86 @@ public class Net
 
     int numCurrentlyFired = 0;
 
+    /** Selects the firing neurons in competitive mode. */
+    public KWinners kWinners = new KWinners();
+
+    /** Per-phase timings and counts; see Instrumentation. */
+    public Instrumentation instrumentation = new Instrumentation();
+
+    double [] competitiveExcitation;
+    boolean [] competitiveWinners;
+
+    /** The neurons whose externallyFired flag was last set, so the next external input can
+     * clear them without visiting every neuron. */
+    int [] externalList = new int[0];
+    int numExternal = 0;
+
+    /** Returns an uninitialized network for the named engine: "object" (Unit and Synapse
+     * objects, the default), "array" (flat primitive arrays, see ArrayNet), "procedural"
+     * (connectivity regenerated when needed, see ProceduralNet) or "distributed" (neurons
+     * split over worker processes, see DistributedNet). */
+    public static Net forEngine(String engine)
+    {
+        if (engine == null || engine.equalsIgnoreCase("object")) return new Net();
+        if (engine.trim().equalsIgnoreCase("array")) return new ArrayNet();
+        if (engine.trim().equalsIgnoreCase("procedural")) return new ProceduralNet();
+        if (engine.trim().equalsIgnoreCase("distributed")) return new DistributedNet();
+        throw new RuntimeException("Unknown network engine \"" + engine + "\" (expected object, array, procedural or distributed)");
+    }
+
     /** Create neurons and connect them. */
     public void initialize()
     {
+        if (!weightPrecision.equalsIgnoreCase("double"))
+        {
+            throw new RuntimeException("weightPrecision = " + weightPrecision + " needs engine = array");
+        }
+        if (deltaFeedforward)
+        {
+            throw new RuntimeException("deltaFeedforward needs engine = array or procedural");
+        }
+        if (!renumber.equalsIgnoreCase("none"))
+        {
+            throw new RuntimeException("renumber needs engine = array");
+        }
         for (int i = 0; i < numNeurons; i++)
             units.add(new Unit(this));
-        
-        for (Unit i : units)
-        {
-            int numNeeded = (int) (connectionProbability * numNeurons);
 
-            while (numNeeded > 0)
+        int numNeeded = (int) (connectionProbability * numNeurons);
+        int [] wiring = Wiring.connect(numNeurons, numNeeded, new RandomStreams(seed), workerPool());
+        for (int i = 0; i < numNeurons; i++)
+        {
+            Unit u = units.get(i);
+            for (int s = i * numNeeded; s < (i+1) * numNeeded; s++)
             {
-                Unit j = units.get( (int) (Math.random() * units.size()));
-                {
-                    //if (Math.random() < connectionProbability)
-                    //{
-                        if ((i != j) && !i.projectsTo(j))
-                        {
-                            i.projectTo(j, w0);
-                            numNeeded--;
-                        }
-                        if (numNeeded == 0) break;
-                    //}
-                }
+                u.projectTo(units.get(wiring[s]), w0);
             }
-                        
-            
         }
     }
+
+    /** Stops the threads of workerPool(); a later parallel step starts new ones. */
+    public void close()
+    {
+        if (pool != null) pool.shutdown();
+        pool = null;
+    }
+
+    /** Threads shared by the parallel parts of this network, or null when numThreads is 1. */
+    WorkerPool workerPool()
+    {
+        if (numThreads <= 1) return null;
+        if (pool == null || pool.size() != numThreads)
+        {
+            if (pool != null) pool.shutdown();
+            pool = new WorkerPool(numThreads);
+        }
+        return pool;
+    }
     
     /** Calls update on all units, and performs synaptic modification if learningRate > 0 */
     public void update()
     {
+        long start = instrumentation.begin();
         if (isCompetitive)
         {
             updateNetworkAsCompetitive();
@@ -91,40 +164,54 @@ public class Net
         {
             updateNetworkUsingInhibitoryConstants();
         }
+        instrumentation.end(Instrumentation.Phase.UPDATE, start, numCurrentlyFired);
+        if (learningRate > 0)
+        {
+            start = instrumentation.begin();
+            long modified = learn();
+            instrumentation.end(Instrumentation.Phase.LEARNING, start, modified);
+        }
+        instrumentation.timestep(numCurrentlyFired);
     }
 
     /** Calls feedforward on all the units. */
     public void feedforward()
     {
-        feedforwardSingleThread();
+        long start = instrumentation.begin();
+        long delivered = feedforwardSingleThread();
+        instrumentation.end(Instrumentation.Phase.FEEDFORWARD, start, delivered);
     }
 
-    private void updateNetworkAsCompetitive()
+    void updateNetworkAsCompetitive()
     {
         numCurrentlyFired = 0;
         final int numDesiredToFire = (int) (numNeurons * desiredActivity);
 
-        for (Unit u : units)
+        if (competitiveExcitation == null || competitiveExcitation.length != units.size())
         {
+            competitiveExcitation = new double[units.size()];
+            competitiveWinners = new boolean[units.size()];
+        }
+
+        for (int i = 0; i < units.size(); i++)
+        {
+            Unit u = units.get(i);
             if (u.externallyFired)
             {
                 u.excitation = Double.MAX_VALUE;
                 u.externallyFired = false;
             }
+            competitiveExcitation[i] = u.excitation;
         }
 
-        final ArrayList<Unit> sortedUnits = new ArrayList<Unit>();
-        sortedUnits.addAll(units);
-
-        Collections.shuffle(sortedUnits); // This should help with tie-breaking stuff.
-        Collections.sort(sortedUnits);    // This will sort them by their excitation.
+        // Ranks 0..numDesiredToFire win, with ties at the cut-off broken at random.
+        kWinners.select(competitiveExcitation, units.size(), numDesiredToFire + 1, competitiveWinners);
 
-        for (int rank = 0; rank < sortedUnits.size(); rank++)
+        for (int i = 0; i < units.size(); i++)
         {
-            Unit unit = sortedUnits.get(rank);
+            Unit unit = units.get(i);
             unit.previousActivation = unit.activation;
-            //System.out.println("Unit with rank " + rank + " has excitation " + unit.excitation);
-            if (rank <= numDesiredToFire)
+            if (competitiveWinners[i])
             {
                 unit.fired = true;
                 unit.activation = 1.0;
@@ -140,24 +227,9 @@ public class Net
 
 
         numPreviouslyFired = numCurrentlyFired;
-        //System.err.println("activity = " + 100.0d*(numPreviouslyFired/numNeurons)+"%");
-
-        if (learningRate > 0)
-        {
-            for (Unit presynaptic : units)
-            {
-                for (Synapse synapse : presynaptic.synapses)
-                {
-                    if (synapse.targetUnit.fired)
-                    {
-                        synapse.weight = synapse.weight + learningRate * (presynaptic.previousActivation - synapse.weight);
-                    }
-                }
-            }
-        }
     }
 
-    private void updateNetworkUsingInhibitoryConstants()
+    void updateNetworkUsingInhibitoryConstants()
     {
         numCurrentlyFired = 0;
         for (Unit i : units)
@@ -166,40 +238,50 @@ public class Net
             if (i.fired) numCurrentlyFired++;
         }
         numPreviouslyFired = numCurrentlyFired;
-        System.err.println("activity = " + 100.0d*(numPreviouslyFired/numNeurons)+"%");
+    }
 
-        if (learningRate > 0)
+
+    /** Levy's rule: move each weight onto a firing neuron toward the presynaptic previous
+     * activation, visiting only the incoming synapses of the firing units.  Returns the
+     * number of synapses modified. */
+    long learn()
+    {
+        long modified = 0;
+        for (Unit postsynaptic : units)
         {
-            for (Unit presynaptic : units)
+            if (!postsynaptic.fired) continue;
+            for (Synapse synapse : postsynaptic.incoming)
             {
-                for (Synapse synapse : presynaptic.synapses)
-                {
-                    if (synapse.targetUnit.fired)
-                    {
-                        synapse.weight = synapse.weight + learningRate * (presynaptic.previousActivation - synapse.weight);
-                    }
-                }
+                synapse.weight = synapse.weight + learningRate * (synapse.sourceUnit.previousActivation - synapse.weight);
             }
+            modified += postsynaptic.incoming.size();
         }
+        return modified;
     }
 
-
-    public void feedforwardSingleThread()
+    /** Returns the number of spikes delivered, i.e. synapses of fired units. */
+    public long feedforwardSingleThread()
     {
-        for (Unit i : units) i.feedforward();
+        long delivered = 0;
+        for (Unit i : units)
+        {
+            i.feedforward();
+            if (i.fired) delivered += i.synapses.size();
+        }
+        return delivered;
     }
 
     
     /** Activates the specified neurons by clamping them on (in addition to any existing activity in the network) */
     public void externallyFire(boolean [] firings)
     {
-        int numForced = 0;
+        numExternal = 0;
         for (int i = 0; i < units.size(); i++)
         {
             if (firings[i]) 
             {
                 units.get(i).externallyFired = true; 
-                numForced++;
+                rememberExternal(i);
                 //System.out.println("externallyFire() requested to fire unit " + i);
             }
             else
@@ -207,17 +289,29 @@ public class Net
                 units.get(i).externallyFired = false;
             }
         }
-        numForcedToFire = numForced;
+        numForcedToFire = numExternal;
+        instrumentation.forced(numExternal);
+    }
+
+    /** Same as externallyFire(boolean[]) with exactly the count distinct neurons in
+     * neurons[0..count-1] on, in time proportional to count rather than numNeurons. */
+    public void externallyFire(int [] neurons, int count)
+    {
+        setExternallyFired(neurons, count);
+        numForcedToFire = count;
+        instrumentation.forced(count);
     }
     
     /** Activates (and de-activates) neurons without engaging the inhibition that would be due to external input. */
     public void divineInterventionFire(boolean [] firings)
     {
+        numExternal = 0;
         for (int i = 0; i < units.size(); i++)
         {
             if (firings[i]) 
             {
                 units.get(i).externallyFired = true; 
+                rememberExternal(i);
             }
             else
             {
@@ -226,6 +320,49 @@ public class Net
             }
         }
         numForcedToFire = 0;
+        instrumentation.forced(numExternal);
+    }
+
+    /** Same as divineInterventionFire(boolean[]) with exactly the count distinct neurons in
+     * neurons[0..count-1] on. */
+    public void divineInterventionFire(int [] neurons, int count)
+    {
+        setExternallyFired(neurons, count);
+        for (Unit u : units)
+        {
+            if (!u.externallyFired) u.fired = false;
+        }
+        numForcedToFire = 0;
+        instrumentation.forced(count);
+    }
+
+    /** Clears the externallyFired flags set last time and sets them for neurons[0..count-1]. */
+    void setExternallyFired(int [] neurons, int count)
+    {
+        for (int k = 0; k < numExternal; k++)
+        {
+            setExternallyFired(externalList[k], false);
+        }
+        numExternal = 0;
+        for (int k = 0; k < count; k++)
+        {
+            setExternallyFired(neurons[k], true);
+            rememberExternal(neurons[k]);
+        }
+    }
+
+    void setExternallyFired(int neuron, boolean on)
+    {
+        units.get(neuron).externallyFired = on;
+    }
+
+    void rememberExternal(int neuron)
+    {
+        if (numExternal == externalList.length)
+        {
+            externalList = Arrays.copyOf(externalList, Math.max(16, 2 * numExternal));
+        }
+        externalList[numExternal++] = neuron;
     }
 
 //    /** Implements Z0 random initial firing pattern */
@@ -240,19 +377,42 @@ public class Net
 //        }
 //    }
     
-    public String getFirings()
+    /** Adds to bins[b] the number of synapses whose weight falls in the b-th of bins.length
+     * equal parts of [0,1] (weights of exactly 1 count in the last). */
+    public void weightHistogram(long [] bins)
     {
-        String result = "";
         for (Unit u : units)
         {
-            if (u.fired) { result += "1 "; } else { result += "0 "; }
+            for (Synapse s : u.synapses)
+            {
+                bins[bin(s.weight, bins.length)]++;
+            }
         }
-        return result;
     }
 
+    static int bin(double weight, int numBins)
+    {
+        return Math.max(0, Math.min(numBins - 1, (int) (weight * numBins)));
+    }
 
+    public String getFirings()
+    {
+        StringBuilder result = new StringBuilder(2 * units.size());
+        for (Unit u : units)
+        {
+            if (u.fired) { result.append("1 "); } else { result.append("0 "); }
+        }
+        return result.toString();
+    }
 
-
-
-
+    /** Packs the current firing vector into firingBits (bit i of word i/64 is set if neuron i
+     * fired), which needs at least (numNeurons+63)/64 words. */
+    public void getFiringBits(long [] firingBits)
+    {
+        Arrays.fill(firingBits, 0, (numNeurons + 63) >>> 6, 0L);
+        for (int i = 0; i < units.size(); i++)
+        {
+            if (units.get(i).fired) firingBits[i >>> 6] |= 1L << i;
+        }
+    }
 }
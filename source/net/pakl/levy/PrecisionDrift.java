@@ -0,0 +1,135 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.io.*;
+
+/** Reports how far the firing rasters of a full SimulationLearning run drift from the
+ * double-precision baseline when the weights are stored as float or fixed16.  Every run
+ * uses the array engine and the same seed, so all differences come from the weights.
+ * <pre>  java net.pakl.levy.PrecisionDrift      (reads levy.prop in the current directory)</pre> */
+public class PrecisionDrift
+{
+    public static void main(String args[]) throws Exception
+    {
+        Properties settings = SimulationLearning.loadProperties(new File("levy.prop"));
+        settings.setProperty("engine", "array");
+        // The comparison indexes rows by trial, so every trial, timestep and neuron is recorded
+        // and every precision trains for all trainingTrials.
+        settings.setProperty("recordTrials", "all");
+        settings.setProperty("recordTimesteps", "all");
+        settings.setProperty("recordNeurons", "all");
+        settings.remove("convergenceSimilarity");
+        settings.remove("convergencePatience");
+        if (settings.getProperty("seed") == null) settings.setProperty("seed", Long.toString(new Random().nextLong()));
+        System.out.println("Seed " + settings.getProperty("seed").trim());
+
+        Run baseline = run(settings, "double");
+        String [] precisions = { "float", "fixed16" };
+        for (String precision : precisions)
+        {
+            Run candidate = run(settings, precision);
+            report(precision, baseline, candidate);
+        }
+    }
+
+    /** A finished simulation and its full raster. */
+    static class Run
+    {
+        SimulationLearning simulation;
+        MemoryRaster raster;
+    }
+
+    /** Runs SimulationLearning at the given weight precision, keeping the full raster in memory. */
+    static Run run(Properties settings, String precision) throws Exception
+    {
+        Properties p = new Properties();
+        p.putAll(settings);
+        p.setProperty("weightPrecision", precision);
+        final MemoryRaster raster = new MemoryRaster(Integer.parseInt(p.getProperty("n").trim()));
+        SimulationLearning simulation = new SimulationLearning(p)
+        {
+            RasterSink openRaster(String name, int numNeurons, int timestepsPerTrial)
+            {
+                return name.equals("levyneurons") ? raster : new MemoryRaster(numNeurons);
+            }
+        };
+        simulation.log = new PrintStream(OutputStream.nullOutputStream());
+        long startTime = System.currentTimeMillis();
+        simulation.run();
+        System.out.println(precision + ": " + (System.currentTimeMillis() - startTime) / 1000.0d + " seconds");
+        Run result = new Run();
+        result.simulation = simulation;
+        result.raster = raster;
+        return result;
+    }
+
+    static void report(String precision, Run baseline, Run candidate)
+    {
+        MemoryRaster a = baseline.raster;
+        MemoryRaster b = candidate.raster;
+        int n = a.getNumNeurons();
+
+        System.out.println("\n" + precision + " vs double");
+        int trials = baseline.simulation.trainingTrials + baseline.simulation.testingTrials;
+        if (a.getNumTrials() != trials || b.getNumTrials() != trials || a.getNumRows() != b.getNumRows())
+        {
+            System.out.println("  cannot compare: double recorded " + a.getNumTrials() + " trials (" + a.getNumRows()
+                    + " timesteps), " + precision + " " + b.getNumTrials() + " (" + b.getNumRows() + "); expected "
+                    + trials + " trials");
+            return;
+        }
+        int firstTestRow = a.getTrialStart(baseline.simulation.trainingTrials);
+        System.out.println("  phase     timesteps  identical  mean differing neurons  mean cosine");
+        printRows("  training", a, b, 0, firstTestRow, n);
+        printRows("  testing ", a, b, firstTestRow, a.getNumRows(), n);
+
+        for (int row = 0; row < a.getNumRows(); row++)
+        {
+            if (!Arrays.equals(a.getRow(row), b.getRow(row)))
+            {
+                int trial = 0;
+                while (trial + 1 < a.getNumTrials() && a.getTrialStart(trial + 1) <= row) trial++;
+                System.out.println("  first difference: trial " + trial + ", timestep " + (row - a.getTrialStart(trial)));
+                break;
+            }
+        }
+
+        WeightStore wa = ((ArrayNet) baseline.simulation.net).weights;
+        WeightStore wb = ((ArrayNet) candidate.simulation.net).weights;
+        double sum = 0;
+        double max = 0;
+        for (int s = 0; s < wa.size(); s++)
+        {
+            double d = Math.abs(wa.get(s) - wb.get(s));
+            sum += d;
+            max = Math.max(max, d);
+        }
+        System.out.println("  trained weights: mean |difference| " + sum / wa.size() + ", max " + max);
+    }
+
+    private static void printRows(String label, MemoryRaster a, MemoryRaster b, int from, int to, int n)
+    {
+        int identical = 0;
+        double differing = 0;
+        double cosine = 0;
+        for (int row = from; row < to; row++)
+        {
+            long [] x = a.getRow(row);
+            long [] y = b.getRow(row);
+            int both = 0, inX = 0, inY = 0, diff = 0;
+            for (int w = 0; w < x.length; w++)
+            {
+                both += Long.bitCount(x[w] & y[w]);
+                inX += Long.bitCount(x[w]);
+                inY += Long.bitCount(y[w]);
+                diff += Long.bitCount(x[w] ^ y[w]);
+            }
+            if (diff == 0) identical++;
+            differing += diff;
+            cosine += (inX == 0 && inY == 0) ? 1.0 : (inX == 0 || inY == 0) ? 0.0 : both / Math.sqrt((double) inX * inY);
+        }
+        int rows = Math.max(1, to - from);
+        System.out.println(String.format("%s  %9d  %8.1f%%  %22.2f  %11.4f",
+                label, to - from, 100.0 * identical / rows, differing / rows, cosine / rows));
+    }
+}
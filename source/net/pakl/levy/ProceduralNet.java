@@ -0,0 +1,258 @@
+package net.pakl.levy;
+
+import java.util.concurrent.atomic.*;
+
+/** An ArrayNet that does not store its connectivity.  The targets of neuron i are drawn
+ * again from its WIRING stream whenever they are needed, with the same Floyd draws as
+ * Wiring.connect(), so the synapses (and every raster) are the same as engine = array with
+ * the same seed.  Only the weights are kept, in draw order, in blocks of about
+ * SYNAPSES_PER_BLOCK; until the first learning step they are all w0 and are not stored at
+ * all.  Memory per synapse falls from 4 bytes of target plus the weight to the weight alone
+ * (2 bytes with weightPrecision = fixed16), at the cost of redrawing the rows of the firing
+ * neurons in every feedforward() and of all neurons in every learning step.
+ * Select it with "engine = procedural" in levy.prop. */
+public class ProceduralNet extends ArrayNet
+{
+    /** Aim for weight blocks of about this many synapses. */
+    static final int SYNAPSES_PER_BLOCK = 1 << 20;
+
+    int synapsesPerNeuron;
+    RandomStreams wiring;
+
+    /** Weights of rows b*rowsPerBlock .. (b+1)*rowsPerBlock-1 in blocks[b], or null while
+     * every weight is still w0.  weights then holds one row of w0. */
+    WeightStore [] blocks;
+    int rowsPerBlock;
+
+    /** Per-thread buffers for redrawing a row. */
+    static class Scratch
+    {
+        int [] targets;
+        long [] chosen;
+    }
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>()
+    {
+        protected Scratch initialValue()
+        {
+            Scratch s = new Scratch();
+            s.targets = new int[synapsesPerNeuron];
+            s.chosen = new long[(numNeurons + 63) >>> 6];
+            return s;
+        }
+    };
+
+    /** With fixed16 weights, one excitation buffer per feedforward thread, added up afterwards. */
+    private double [][] partial;
+    private int numPartials;
+    private final AtomicInteger nextPartial = new AtomicInteger();
+
+    private WorkerPool.Range partialRange = new WorkerPool.Range()
+    {
+        public void run(int from, int to)
+        {
+            double [] into = partial[nextPartial.getAndIncrement()];
+            Scratch s = scratch.get();
+            for (int k = from; k < to; k++)
+            {
+                accumulateRow(firedList[k], s, into);
+            }
+        }
+    };
+
+    private WorkerPool.Range mergeRange = new WorkerPool.Range()
+    {
+        public void run(int from, int to)
+        {
+            for (int c = 0; c < numPartials; c++)
+            {
+                double [] p = partial[c];
+                for (int t = from; t < to; t++)
+                {
+                    excitation[t] += p[t];
+                    p[t] = 0;
+                }
+            }
+        }
+    };
+
+    private final AtomicLong learnModified = new AtomicLong();
+
+    private WorkerPool.Range learnRange = new WorkerPool.Range()
+    {
+        public void run(int from, int to)
+        {
+            learnModified.addAndGet(learnRows(from, to));
+        }
+    };
+
+    /** Create neurons; their connections are drawn when used. */
+    public void initialize()
+    {
+        if (!renumber.equalsIgnoreCase("none")) throw new RuntimeException("renumber needs engine = array");
+        checkDeltaFeedforward();
+        updateKernels = Kernels.forName(kernels);
+        synapsesPerNeuron = (int) (connectionProbability * numNeurons);
+        Wiring.check(numNeurons, synapsesPerNeuron);
+        wiring = new RandomStreams(seed);
+        weights = WeightStore.create(weightPrecision, synapsesPerNeuron, w0);
+        rowsPerBlock = Math.max(1, SYNAPSES_PER_BLOCK / Math.max(1, synapsesPerNeuron));
+        blocks = null;
+        allocateState();
+    }
+
+    public ArrayNet fork()
+    {
+        ProceduralNet f = new ProceduralNet();
+        shareWith(f);
+        f.synapsesPerNeuron = synapsesPerNeuron;
+        f.wiring = wiring;
+        f.blocks = blocks;
+        f.rowsPerBlock = rowsPerBlock;
+        return f;
+    }
+
+    /** Draws the targets of neuron i into s.targets, in draw order. */
+    void drawRow(int i, Scratch s)
+    {
+        Wiring.drawTargets(i, numNeurons, synapsesPerNeuron, wiring.stream(RandomStreams.Purpose.WIRING, i), s.chosen, s.targets, 0);
+        for (int j = 0; j < synapsesPerNeuron; j++)
+        {
+            s.chosen[s.targets[j] >>> 6] = 0;
+        }
+    }
+
+    /** The store holding the weights of row i. */
+    WeightStore rowWeights(int i)
+    {
+        return (blocks == null) ? weights : blocks[i / rowsPerBlock];
+    }
+
+    /** Index of the first weight of row i in rowWeights(i). */
+    int rowOffset(int i)
+    {
+        return (blocks == null) ? 0 : (i % rowsPerBlock) * synapsesPerNeuron;
+    }
+
+    void deliver(int i, double [] into)
+    {
+        accumulateRow(i, scratch.get(), into);
+    }
+
+    void withdraw(int i, double [] into)
+    {
+        Scratch s = scratch.get();
+        drawRow(i, s);
+        rowWeights(i).subtractRow(rowOffset(i), synapsesPerNeuron, s.targets, into);
+    }
+
+    int rowLength(int i)
+    {
+        return synapsesPerNeuron;
+    }
+
+    private void accumulateRow(int i, Scratch s, double [] into)
+    {
+        drawRow(i, s);
+        rowWeights(i).accumulateRow(rowOffset(i), synapsesPerNeuron, s.targets, into);
+    }
+
+    public long feedforwardSingleThread()
+    {
+        Scratch s = scratch.get();
+        int [] list = firedList();
+        for (int k = 0; k < numFiredListed; k++)
+        {
+            accumulateRow(list[k], s, excitation);
+        }
+        return spikesFromFired();
+    }
+
+    /** Rows are redrawn in draw order, not sorted, so the threads cannot split the targets
+     * among themselves as ArrayNet does.  Instead each thread adds the rows of a share of the
+     * firing neurons into its own buffer.  That changes the order of the additions, which
+     * only fixed16 weights (whole numbers of weight units) can afford, so with any other
+     * precision this is feedforwardSingleThread(). */
+    public long feedforwardParallel()
+    {
+        if (!weights.getPrecision().equals("fixed16"))
+        {
+            return feedforwardSingleThread();
+        }
+        WorkerPool pool = workerPool();
+        if (partial == null)
+        {
+            partial = new double[pool.size()][numNeurons];
+        }
+        firedList();
+        nextPartial.set(0);
+        pool.forEachRange(0, numFiredListed, partialRange);
+        numPartials = nextPartial.get();
+        pool.forEachRange(0, numNeurons, mergeRange);
+        return spikesFromFired();
+    }
+
+    long spikesFromFired()
+    {
+        firedList();
+        return (long) numFiredListed * synapsesPerNeuron;
+    }
+
+    /** Levy's rule, as in ArrayNet.  Every row is redrawn; each row is learned by one thread,
+     * so the weights are the same for any number of threads. */
+    long learn()
+    {
+        recurrentInputValid = false;
+        if (blocks == null)
+        {
+            allocateBlocks();
+        }
+        if (numThreads > 1)
+        {
+            learnModified.set(0);
+            workerPool().forEachRange(0, numNeurons, learnRange);
+            return learnModified.get();
+        }
+        return learnRows(0, numNeurons);
+    }
+
+    private long learnRows(int from, int to)
+    {
+        Scratch s = scratch.get();
+        long modified = 0;
+        for (int i = from; i < to; i++)
+        {
+            drawRow(i, s);
+            modified += rowWeights(i).learnRow(rowOffset(i), synapsesPerNeuron, s.targets, fired, learningRate, previousActivation[i]);
+        }
+        return modified;
+    }
+
+    public void weightHistogram(long [] bins)
+    {
+        if (blocks == null)
+        {
+            bins[bin(w0, bins.length)] += (long) numNeurons * synapsesPerNeuron;
+            return;
+        }
+        for (WeightStore block : blocks)
+        {
+            for (int s = 0; s < block.size(); s++)
+            {
+                bins[bin(block.get(s), bins.length)]++;
+            }
+        }
+    }
+
+    /** Gives every row its own weights, all w0. */
+    private void allocateBlocks()
+    {
+        WeightStore [] result = new WeightStore[(numNeurons + rowsPerBlock - 1) / rowsPerBlock];
+        for (int b = 0; b < result.length; b++)
+        {
+            int rows = Math.min(rowsPerBlock, numNeurons - b * rowsPerBlock);
+            result[b] = WeightStore.create(weightPrecision, rows * synapsesPerNeuron, w0);
+        }
+        blocks = result;
+    }
+}
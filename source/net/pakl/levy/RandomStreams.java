@@ -0,0 +1,52 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** All the randomness of one simulation, derived from a single seed.  Each stream is
+ * identified by what it is used for and an index (a neuron, a trial or a thread), and is
+ * a SplittableRandom of its own, so streams never contend with each other and any of them
+ * can be recreated on its own, in any order, on any thread, with the same result. */
+public class RandomStreams
+{
+    public enum Purpose
+    {
+        /** Connectivity, indexed by presynaptic neuron. */
+        WIRING,
+        /** External off-noise on the input patterns, indexed by trial. */
+        NOISE,
+        /** Random initial firing pattern, indexed by trial. */
+        INITIAL_FIRING,
+        /** Competitive tie-breaking, indexed by trial. */
+        TIE_BREAK
+    }
+
+    public final long seed;
+
+    public RandomStreams(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /** A fresh generator for the given purpose and index. */
+    public SplittableRandom stream(Purpose purpose, long index)
+    {
+        return new SplittableRandom(mix(mix(seed, purpose.ordinal()), index));
+    }
+
+    /** Seed for the index-th of several independent simulations derived from this seed. */
+    public long simulationSeed(long index)
+    {
+        return mix(seed ^ 0x5DEECE66DL, index);
+    }
+
+    /** Stafford's variant 13 of the MurmurHash3 finalizer applied to seed and index, so
+     * neighbouring indices give unrelated seeds (consecutive SplittableRandom seeds would
+     * give overlapping streams). */
+    static long mix(long seed, long index)
+    {
+        long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
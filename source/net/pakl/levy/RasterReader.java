@@ -0,0 +1,126 @@
+package net.pakl.levy;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/** Reads rasters written by BinaryRaster.  Run it as a program to convert one back to the
+ * text format the R scripts expect:
+ * <pre>  java net.pakl.levy.RasterReader finaltrain.bin &gt; finaltrain.txt</pre> */
+public class RasterReader implements Closeable
+{
+    private final FileChannel channel;
+    private final int numNeurons;
+    private final int timestepsPerTrial;
+    private final long numRows;
+    private final int [] trialStarts;
+    private final int wordsPerRow;
+    private final ByteBuffer rowBuffer;
+
+    public RasterReader(File file) throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(BinaryRaster.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != BinaryRaster.MAGIC) throw new IOException(file + " is not a binary raster file");
+        if (header.getInt(4) != BinaryRaster.VERSION) throw new IOException(file + " has unsupported raster version " + header.getInt(4));
+        numNeurons = header.getInt(8);
+        timestepsPerTrial = header.getInt(12);
+        numRows = header.getLong(16);
+        wordsPerRow = (numNeurons + 63) >>> 6;
+
+        trialStarts = new int[header.getInt(24)];
+        ByteBuffer trials = ByteBuffer.allocate(4 * trialStarts.length).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(trials, rowOffset(numRows));
+        trials.asIntBuffer().get(trialStarts);
+
+        rowBuffer = ByteBuffer.allocateDirect(8 * wordsPerRow).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int getNumNeurons()
+    {
+        return numNeurons;
+    }
+
+    public int getTimestepsPerTrial()
+    {
+        return timestepsPerTrial;
+    }
+
+    public long getNumRows()
+    {
+        return numRows;
+    }
+
+    public int getNumTrials()
+    {
+        return trialStarts.length;
+    }
+
+    /** Index of the first row of the given trial. */
+    public int getTrialStart(int trial)
+    {
+        return trialStarts[trial];
+    }
+
+    /** Copies row number row into firingBits, which needs ceil(numNeurons/64) words. */
+    public void readRow(long row, long [] firingBits) throws IOException
+    {
+        rowBuffer.clear();
+        readFully(rowBuffer, rowOffset(row));
+        rowBuffer.asLongBuffer().get(firingBits, 0, wordsPerRow);
+    }
+
+    /** Writes every row to sink, keeping the trial boundaries. */
+    public void copyTo(RasterSink sink) throws IOException
+    {
+        long [] bits = new long[wordsPerRow];
+        int trial = 0;
+        for (long row = 0; row < numRows; row++)
+        {
+            while (trial < trialStarts.length && trialStarts[trial] == row)
+            {
+                sink.beginTrial();
+                trial++;
+            }
+            readRow(row, bits);
+            sink.record(bits);
+        }
+    }
+
+    private long rowOffset(long row)
+    {
+        return BinaryRaster.HEADER_BYTES + row * 8L * wordsPerRow;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Raster file ends early");
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: java net.pakl.levy.RasterReader raster.bin > raster.txt");
+            System.exit(1);
+        }
+        RasterReader reader = new RasterReader(new File(args[0]));
+        TextRaster text = new TextRaster(new FileOutputStream(FileDescriptor.out), reader.getNumNeurons());
+        reader.copyTo(text);
+        text.close();
+        reader.close();
+    }
+}
@@ -0,0 +1,14 @@
+package net.pakl.levy;
+
+import java.io.*;
+
+/** Destination for firing rasters: one bit-packed firing vector per timestep,
+ * grouped into trials (see Net.getFiringBits). */
+public interface RasterSink extends Closeable
+{
+    /** Marks the start of a new trial; the following rows belong to it. */
+    public void beginTrial() throws IOException;
+
+    /** Appends the firing vector of one timestep. */
+    public void record(long [] firingBits) throws IOException;
+}
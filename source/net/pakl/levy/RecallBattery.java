@@ -0,0 +1,198 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+/** Recall trials run against one trained network, several at a time.  Each trial runs on
+ * its own ArrayNet.fork(), which shares the trained connectivity and weights and starts
+ * from the state the network was in when run() was called, with the random streams of its
+ * trial number.  A trial's raster therefore does not depend on how many trials run at once
+ * or on which finishes first.  (Run one after another on the network itself, as
+ * SimulationLearning does unless testingInParallel is set, each trial instead starts where
+ * the previous one stopped.)
+ * <pre>  java net.pakl.levy.RecallBattery [inParallel=cores]</pre>
+ * loads the trained network named by resumeFrom in levy.prop and, for each off-noise level
+ * listed in recallNoise (default: pExternalOffNoise), runs testingTrials recall trials cued
+ * by the first pattern, writing them to recall_NOISE.txt (or .bin, see rasterFormat).  The
+ * levels reuse the same trial numbers, so they differ only in the noise level. */
+public class RecallBattery
+{
+    /** One recall trial: the cue neurons are clamped on, less off-noise, for the first
+     * cueTimesteps timesteps, and the firing of every timestep goes to raster. */
+    public static class Trial
+    {
+        final int number;
+        final int [] cue;
+        final int cueTimesteps;
+        final double offNoise;
+        public final MemoryRaster raster;
+
+        Trial(int number, int [] cue, int cueTimesteps, double offNoise, int numNeurons)
+        {
+            this.number = number;
+            this.cue = cue;
+            this.cueTimesteps = cueTimesteps;
+            this.offNoise = offNoise;
+            this.raster = new MemoryRaster(numNeurons);
+        }
+
+        /** Appends this trial's raster to sink as one trial. */
+        public void writeTo(RasterSink sink) throws IOException
+        {
+            sink.beginTrial();
+            for (int row = 0; row < raster.getNumRows(); row++)
+            {
+                sink.record(raster.getRow(row));
+            }
+        }
+    }
+
+    private final ArrayNet trained;
+    private final RandomStreams random;
+    private final int timesteps;
+    private final List<Trial> trials = new ArrayList<Trial>();
+
+    /** A battery of recall trials of the given length against trained, which must not be
+     * changed while run() is in progress. */
+    public RecallBattery(ArrayNet trained, int timesteps)
+    {
+        this.trained = trained;
+        this.random = new RandomStreams(trained.seed);
+        this.timesteps = timesteps;
+    }
+
+    /** Adds a trial drawing from the random streams of trial number (see
+     * SimulationLearning.beginTrial; testing trials are numbered after the training trials). */
+    public Trial add(int number, int [] cue, int cueTimesteps, double offNoise)
+    {
+        Trial trial = new Trial(number, cue, cueTimesteps, offNoise, trained.numNeurons);
+        trials.add(trial);
+        return trial;
+    }
+
+    public List<Trial> getTrials()
+    {
+        return trials;
+    }
+
+    /** Runs every trial, inParallel at a time, and adds their instrumentation to the
+     * trained network's. */
+    public void run(int inParallel)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(inParallel);
+        List<Future<Instrumentation>> results = new ArrayList<Future<Instrumentation>>();
+        for (final Trial trial : trials)
+        {
+            results.add(pool.submit(new Callable<Instrumentation>()
+            {
+                public Instrumentation call() throws Exception
+                {
+                    return runTrial(trial);
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<Instrumentation> result : results)
+        {
+            try
+            {
+                trained.instrumentation.add(result.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for recall trials", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new RuntimeException("Recall trial failed: " + e.getCause(), e.getCause());
+            }
+        }
+    }
+
+    /** Runs one trial on a fork of the trained network, the way SimulationLearning runs a
+     * testing trial, and returns the fork's instrumentation. */
+    Instrumentation runTrial(Trial trial) throws IOException
+    {
+        ArrayNet net = trained.fork();
+        int [] initialFiring = new int[(int) (net.numNeurons*net.desiredActivity)];
+        long [] chosen = new long[(net.numNeurons + 63) >>> 6];
+        SplittableRandom noise = SimulationLearning.beginTrial(net, random, trial.number, initialFiring, chosen);
+
+        int [] noisyCue = new int[trial.cue.length];
+        long [] firingBits = new long[(net.numNeurons + 63) >>> 6];
+        trial.raster.beginTrial();
+        for (int t = 0; t < timesteps; t++)
+        {
+            if (t < trial.cueTimesteps)
+            {
+                net.externallyFire(noisyCue, SimulationLearning.offNoise(trial.cue, trial.offNoise, noise, noisyCue));
+            }
+            net.feedforward();
+            net.update();
+            long start = net.instrumentation.begin();
+            net.getFiringBits(firingBits);
+            trial.raster.record(firingBits);
+            net.instrumentation.end(Instrumentation.Phase.OUTPUT, start, 1);
+        }
+        return net.instrumentation;
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        int inParallel = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Properties settings = SimulationLearning.loadProperties(new File("levy.prop"));
+        if (settings.getProperty("resumeFrom") == null)
+        {
+            throw new RuntimeException("RecallBattery needs resumeFrom = the checkpoint of a trained network in levy.prop");
+        }
+        SimulationLearning simulation = new SimulationLearning(settings);
+        int trained = simulation.resume();
+        try
+        {
+            recall(simulation, settings, trained, inParallel);
+        }
+        finally
+        {
+            simulation.net.close();
+        }
+    }
+
+    /** The recall battery of main() on the network simulation resumed after trained trials. */
+    static void recall(SimulationLearning simulation, Properties settings, int trained, int inParallel) throws IOException
+    {
+        simulation.net.learningRate = 0;
+
+        String levels = settings.getProperty("recallNoise", Double.toString(simulation.pExternalOffNoise));
+        List<String> noise = new ArrayList<String>();
+        RecallBattery battery = new RecallBattery((ArrayNet) simulation.net, simulation.sequenceLength * simulation.stutter);
+        for (String level : levels.trim().split("[\\s,]+"))
+        {
+            noise.add(level);
+            for (int i = 0; i < simulation.testingTrials; i++)
+            {
+                battery.add(trained + i, simulation.pattern(0), simulation.stutter, Double.parseDouble(level));
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        battery.run(inParallel);
+        System.err.println("Ran " + battery.getTrials().size() + " recall trials, " + inParallel + " at a time, in "
+                + (System.currentTimeMillis() - startTime) + " ms");
+
+        for (int l = 0; l < noise.size(); l++)
+        {
+            RasterSink out = simulation.openRaster("recall_" + noise.get(l), simulation.net.numNeurons, simulation.sequenceLength * simulation.stutter);
+            for (int i = 0; i < simulation.testingTrials; i++)
+            {
+                battery.getTrials().get(l * simulation.testingTrials + i).writeTo(out);
+            }
+            out.close();
+        }
+        if (simulation.net.instrumentation.enabled)
+        {
+            simulation.net.instrumentation.writeSummary(System.err, simulation.net.numNeurons);
+        }
+    }
+}
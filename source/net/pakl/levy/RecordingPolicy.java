@@ -0,0 +1,126 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.io.*;
+
+/** Decides which trials, timesteps and neurons go into levyneurons, the raster of the whole
+ * run (earlytrain, finaltrain and finaltest are always written in full).  By default
+ * everything is recorded; in levy.prop,
+ * <pre>
+ *   recordTrials = 0-4, 100-119, test    # or all, none, train
+ *   recordTimesteps = 0-49               # within each trial, from 0
+ *   recordNeurons = 0-199                # levyneurons then has only these columns
+ * </pre>
+ * Training trials are numbered from 0 and testing trials follow them.  SimulationLearning
+ * only reads the firing of a timestep that some raster or the statistics need, so timesteps
+ * that are not recorded cost neither I/O nor allocation. */
+public class RecordingPolicy
+{
+    /** Trials and timesteps recorded, or null for all. */
+    private final BitSet trials;
+    private final BitSet timesteps;
+
+    /** Neurons recorded, ascending, or null for all. */
+    private final int [] neurons;
+
+    public RecordingPolicy(Properties p, int trainingTrials, int testingTrials, int timestepsPerTrial, int numNeurons)
+    {
+        String trialSpec = p.getProperty("recordTrials", "all").trim()
+                .replaceAll("(?i)\\btrain\\b", "0-" + (trainingTrials - 1))
+                .replaceAll("(?i)\\btest\\b", trainingTrials + "-" + (trainingTrials + testingTrials - 1));
+        trials = parse("recordTrials", trialSpec, trainingTrials + testingTrials);
+        timesteps = parse("recordTimesteps", p.getProperty("recordTimesteps", "all").trim(), timestepsPerTrial);
+        BitSet neuronSet = parse("recordNeurons", p.getProperty("recordNeurons", "all").trim(), numNeurons);
+        if (neuronSet == null)
+        {
+            neurons = null;
+        }
+        else
+        {
+            neurons = new int[neuronSet.cardinality()];
+            int k = 0;
+            for (int i = neuronSet.nextSetBit(0); i >= 0; i = neuronSet.nextSetBit(i + 1))
+            {
+                neurons[k++] = i;
+            }
+        }
+    }
+
+    /** Parses "all" (null), "none", or numbers and inclusive ranges a-b separated by commas
+     * or spaces, keeping those below size. */
+    static BitSet parse(String setting, String spec, int size)
+    {
+        if (spec.equalsIgnoreCase("all")) return null;
+        BitSet result = new BitSet(size);
+        if (spec.equalsIgnoreCase("none") || spec.length() == 0) return result;
+        for (String item : spec.split("[\\s,]+"))
+        {
+            try
+            {
+                int dash = item.indexOf('-', 1);
+                int from = Integer.parseInt(dash < 0 ? item : item.substring(0, dash));
+                int to = (dash < 0) ? from : Integer.parseInt(item.substring(dash + 1));
+                if (from < 0) throw new NumberFormatException();
+                if (from <= to && from < size) result.set(from, Math.min(to, size - 1) + 1);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new RuntimeException("Cannot read \"" + item + "\" in " + setting + " (expected all, none, or numbers and ranges a-b)");
+            }
+        }
+        return result;
+    }
+
+    public boolean recordsTrial(int trial)
+    {
+        return (trials == null || trials.get(trial)) && (timesteps == null || !timesteps.isEmpty());
+    }
+
+    public boolean records(int trial, int timestep)
+    {
+        return (trials == null || trials.get(trial)) && (timesteps == null || timesteps.get(timestep));
+    }
+
+    /** Number of neurons in each recorded row. */
+    public int getNumRecordedNeurons(int numNeurons)
+    {
+        return (neurons == null) ? numNeurons : neurons.length;
+    }
+
+    /** Number of timesteps recorded per trial. */
+    public int getNumRecordedTimesteps(int timestepsPerTrial)
+    {
+        return (timesteps == null) ? timestepsPerTrial : timesteps.cardinality();
+    }
+
+    /** sink itself if every neuron is recorded, otherwise a sink that passes on only the
+     * recorded neurons of each row, packed in ascending order. */
+    public RasterSink select(final RasterSink sink)
+    {
+        if (neurons == null) return sink;
+        final long [] selected = new long[(neurons.length + 63) >>> 6];
+        return new RasterSink()
+        {
+            public void beginTrial() throws IOException
+            {
+                sink.beginTrial();
+            }
+
+            public void record(long [] firingBits) throws IOException
+            {
+                Arrays.fill(selected, 0L);
+                for (int k = 0; k < neurons.length; k++)
+                {
+                    int i = neurons[k];
+                    if ((firingBits[i >>> 6] & (1L << i)) != 0) selected[k >>> 6] |= 1L << k;
+                }
+                sink.record(selected);
+            }
+
+            public void close() throws IOException
+            {
+                sink.close();
+            }
+        };
+    }
+}
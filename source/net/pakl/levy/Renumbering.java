@@ -0,0 +1,140 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Orders the neurons of a wired network so that connected neurons get nearby numbers,
+ * which ArrayNet can then use as their positions in its arrays ("renumber = rcm" in
+ * levy.prop).  The only ordering is reverse Cuthill-McKee: a breadth-first search over the
+ * connections taken in both directions, each neuron's unvisited neighbours visited in order
+ * of increasing degree and starting each component from a neuron of least degree, the
+ * result reversed.  It reduces the bandwidth of the connectivity matrix, so the targets of a
+ * row, and the sources onto a neuron, tend to lie close together. */
+public class Renumbering
+{
+    /** Returns order, where order[j] is the neuron to be numbered j, for the named ordering;
+     * the rows of neuron i are targets[rowStart[i] .. rowStart[i+1]-1]. */
+    public static int [] order(String name, int numNeurons, int [] rowStart, int [] targets)
+    {
+        if (name.equalsIgnoreCase("rcm")) return reverseCuthillMcKee(numNeurons, rowStart, targets);
+        throw new RuntimeException("Unknown renumber \"" + name + "\" (expected none or rcm)");
+    }
+
+    static int [] reverseCuthillMcKee(int n, int [] rowStart, int [] targets)
+    {
+        // The incoming connections, so the search can follow synapses either way.
+        int [] inStart = new int[n+1];
+        for (int s = 0; s < rowStart[n]; s++)
+        {
+            inStart[targets[s]+1]++;
+        }
+        for (int t = 0; t < n; t++)
+        {
+            inStart[t+1] += inStart[t];
+        }
+        int [] next = Arrays.copyOf(inStart, n);
+        int [] sources = new int[rowStart[n]];
+        for (int i = 0; i < n; i++)
+        {
+            for (int s = rowStart[i]; s < rowStart[i+1]; s++)
+            {
+                sources[next[targets[s]]++] = i;
+            }
+        }
+        next = null;
+
+        final int [] degree = new int[n];
+        long [] keys = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            degree[i] = (rowStart[i+1] - rowStart[i]) + (inStart[i+1] - inStart[i]);
+            keys[i] = key(degree, i);
+        }
+        // Candidate starting neurons, least degree first.
+        Arrays.sort(keys);
+        int [] starts = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            starts[i] = (int) keys[i];
+        }
+
+        boolean [] visited = new boolean[n];
+        int [] order = new int[n];
+        int visitedCount = 0;
+        int nextStart = 0;
+        for (int head = 0; head < n; head++)
+        {
+            if (head == visitedCount)
+            {
+                while (visited[starts[nextStart]]) nextStart++;
+                visited[starts[nextStart]] = true;
+                order[visitedCount++] = starts[nextStart];
+            }
+            int v = order[head];
+            int first = visitedCount;
+            for (int s = rowStart[v]; s < rowStart[v+1]; s++)
+            {
+                int w = targets[s];
+                if (!visited[w]) { visited[w] = true; order[visitedCount++] = w; }
+            }
+            for (int s = inStart[v]; s < inStart[v+1]; s++)
+            {
+                int w = sources[s];
+                if (!visited[w]) { visited[w] = true; order[visitedCount++] = w; }
+            }
+            for (int j = first; j < visitedCount; j++)
+            {
+                keys[j - first] = key(degree, order[j]);
+            }
+            Arrays.sort(keys, 0, visitedCount - first);
+            for (int j = first; j < visitedCount; j++)
+            {
+                order[j] = (int) keys[j - first];
+            }
+        }
+
+        for (int lo = 0, hi = n - 1; lo < hi; lo++, hi--)
+        {
+            int swap = order[lo]; order[lo] = order[hi]; order[hi] = swap;
+        }
+        return order;
+    }
+
+    /** Sorts by degree, then by neuron; the neuron is in the low 32 bits. */
+    private static long key(int [] degree, int neuron)
+    {
+        return ((long) degree[neuron] << 32) | neuron;
+    }
+
+    /** Returns the inverse permutation: position[order[j]] = j. */
+    public static int [] inverse(int [] order)
+    {
+        int [] position = new int[order.length];
+        for (int j = 0; j < order.length; j++)
+        {
+            position[order[j]] = j;
+        }
+        return position;
+    }
+
+    /** The distance |source - target| that the given fraction of the synapses do not
+     * exceed, for judging an ordering (about n/3 at the median for uniform wiring). */
+    public static int bandwidth(int n, int [] rowStart, int [] targets, double fraction)
+    {
+        long [] counts = new long[n];
+        for (int i = 0; i < n; i++)
+        {
+            for (int s = rowStart[i]; s < rowStart[i+1]; s++)
+            {
+                counts[Math.abs(targets[s] - i)]++;
+            }
+        }
+        long needed = (long) Math.ceil(fraction * rowStart[n]);
+        long sum = 0;
+        for (int d = 0; d < n; d++)
+        {
+            sum += counts[d];
+            if (sum >= needed) return d;
+        }
+        return n - 1;
+    }
+}
@@ -0,0 +1,123 @@
+package net.pakl.levy;
+
+import java.io.*;
+
+/** Summaries of a run computed as it goes, without keeping any raster ("statistics = true"
+ * in levy.prop).  Everything is preallocated, so a timestep costs a pass over the firing
+ * vector and the input pattern and no allocation or I/O.  write() produces
+ * <pre>
+ *   timesteps.tsv  per trial and timestep: neurons fired, and the cosine similarity of the
+ *                  firing to the input pattern of that timestep (0 if either is silent)
+ *   neurons.tsv    per neuron: fraction of training and of testing timesteps it fired on
+ *   weights.tsv    histogram of all weights (WEIGHT_BINS bins over [0,1]) at the start and
+ *                  after every training trial
+ * </pre> */
+public class RunStatistics
+{
+    public static final int WEIGHT_BINS = 20;
+
+    private final int numNeurons;
+    private final int trainingTrials;
+    private final int numTrials;
+    private final int timestepsPerTrial;
+
+    private final int [] activity;
+    private final double [] similarity;
+    private final boolean [] seen;
+    private final long [] trainFirings;
+    private final long [] testFirings;
+    private long trainTimesteps = 0;
+    private long testTimesteps = 0;
+
+    /** weightCounts[trial] is the histogram after that many training trials, or null. */
+    private final long [][] weightCounts;
+
+    public RunStatistics(int numNeurons, int trainingTrials, int testingTrials, int timestepsPerTrial)
+    {
+        this.numNeurons = numNeurons;
+        this.trainingTrials = trainingTrials;
+        this.numTrials = trainingTrials + testingTrials;
+        this.timestepsPerTrial = timestepsPerTrial;
+        activity = new int[numTrials * timestepsPerTrial];
+        similarity = new double[numTrials * timestepsPerTrial];
+        seen = new boolean[numTrials * timestepsPerTrial];
+        trainFirings = new long[numNeurons];
+        testFirings = new long[numNeurons];
+        weightCounts = new long[trainingTrials + 1][];
+    }
+
+    /** Takes in the firing of one timestep of a trial, whose input pattern was pattern. */
+    public void timestep(int trial, int t, long [] firingBits, int [] pattern)
+    {
+        long [] firings = (trial < trainingTrials) ? trainFirings : testFirings;
+        int fired = 0;
+        for (int w = 0; w < (numNeurons + 63) >>> 6; w++)
+        {
+            long word = firingBits[w];
+            fired += Long.bitCount(word);
+            while (word != 0)
+            {
+                firings[(w << 6) + Long.numberOfTrailingZeros(word)]++;
+                word &= word - 1;
+            }
+        }
+        int overlap = 0;
+        for (int i : pattern)
+        {
+            if ((firingBits[i >>> 6] & (1L << i)) != 0) overlap++;
+        }
+        int row = trial * timestepsPerTrial + t;
+        activity[row] = fired;
+        similarity[row] = (overlap == 0) ? 0 : overlap / Math.sqrt((double) fired * pattern.length);
+        seen[row] = true;
+        if (trial < trainingTrials) trainTimesteps++;
+        else testTimesteps++;
+    }
+
+    /** Takes the weight histogram of net after completedTrials training trials. */
+    public void weights(int completedTrials, Net net)
+    {
+        long [] bins = new long[WEIGHT_BINS];
+        net.weightHistogram(bins);
+        weightCounts[completedTrials] = bins;
+    }
+
+    public void write(File directory) throws IOException
+    {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "timesteps.tsv"))));
+        out.println("trial\tphase\ttimestep\tactivity\tsimilarity");
+        for (int row = 0; row < seen.length; row++)
+        {
+            if (!seen[row]) continue;
+            int trial = row / timestepsPerTrial;
+            out.println(trial + "\t" + ((trial < trainingTrials) ? "train" : "test") + "\t" + (row % timestepsPerTrial)
+                    + "\t" + activity[row] + "\t" + similarity[row]);
+        }
+        out.close();
+
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "neurons.tsv"))));
+        out.println("neuron\ttrainRate\ttestRate");
+        for (int i = 0; i < numNeurons; i++)
+        {
+            out.println(i + "\t" + ((trainTimesteps == 0) ? 0 : (double) trainFirings[i] / trainTimesteps)
+                    + "\t" + ((testTimesteps == 0) ? 0 : (double) testFirings[i] / testTimesteps));
+        }
+        out.close();
+
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "weights.tsv"))));
+        StringBuilder header = new StringBuilder("trainedTrials");
+        for (int b = 0; b < WEIGHT_BINS; b++)
+        {
+            header.append('\t').append((double) b / WEIGHT_BINS).append('-').append((double) (b + 1) / WEIGHT_BINS);
+        }
+        out.println(header);
+        for (int trial = 0; trial < weightCounts.length; trial++)
+        {
+            if (weightCounts[trial] == null) continue;
+            StringBuilder line = new StringBuilder().append(trial);
+            for (long count : weightCounts[trial]) line.append('\t').append(count);
+            out.println(line);
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,208 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.io.*;
+
+/** The cosine-similarity analysis of README.txt done directly on bit-packed rasters: for
+ * binary firing vectors a and b, cos(a,b) = |a AND b| / sqrt(|a| |b|), counted with
+ * popcounts.  Computes each run's timestep-by-timestep similarity matrix, their mean
+ * (similarity.txt) and the mean and standard error across runs of row start, columns
+ * start..end (curve.txt), numbered from 1 as in the R scripts.  As with lsa::cosine, a
+ * timestep on which nothing fired gives NaN.
+ * <pre>  java net.pakl.levy.SimilarityAnalysis [start end] alpha0.8_*&#47;finaltrain.bin</pre>
+ * Text rasters (.txt) are read as well.  Ensemble runs this on the final training trial of
+ * its runs without going through files. */
+public class SimilarityAnalysis
+{
+    /** First and last timestep of the similarity curve, 1-based and inclusive. */
+    public int start = 25;
+    public int end = 75;
+
+    private final List<double [][]> matrices = new ArrayList<double [][]>();
+
+    /** Computes the similarity matrix of the rows of each raster, in parallel over
+     * runs and matrix rows. */
+    public void addRuns(final List<MemoryRaster> rasters, WorkerPool pool)
+    {
+        final List<double [][]> result = new ArrayList<double [][]>();
+        int totalRows = 0;
+        final int [] firstIndex = new int[rasters.size() + 1];
+        for (int r = 0; r < rasters.size(); r++)
+        {
+            int timesteps = rasters.get(r).getNumRows();
+            result.add(new double[timesteps][timesteps]);
+            firstIndex[r] = totalRows;
+            totalRows += timesteps;
+        }
+        firstIndex[rasters.size()] = totalRows;
+
+        WorkerPool.Range rows = new WorkerPool.Range()
+        {
+            public void run(int from, int to)
+            {
+                int r = 0;
+                for (int index = from; index < to; index++)
+                {
+                    while (firstIndex[r+1] <= index) r++;
+                    fillRow(rasters.get(r), result.get(r), index - firstIndex[r]);
+                }
+            }
+        };
+        if (pool == null) rows.run(0, totalRows);
+        else pool.forEachRange(0, totalRows, rows);
+        matrices.addAll(result);
+    }
+
+    /** Fills row i of the symmetric matrix m, and column i below the diagonal. */
+    static void fillRow(MemoryRaster raster, double [][] m, int i)
+    {
+        long [] a = raster.getRow(i);
+        int lengthA = popcount(a);
+        for (int j = i; j < m.length; j++)
+        {
+            long [] b = raster.getRow(j);
+            int both = 0;
+            for (int w = 0; w < a.length; w++)
+            {
+                both += Long.bitCount(a[w] & b[w]);
+            }
+            double cosine = both / Math.sqrt((double) lengthA * popcount(b));
+            m[i][j] = cosine;
+            m[j][i] = cosine;
+        }
+    }
+
+    /** Cosine similarity of two firing vectors, or 0 if either is silent. */
+    static double cosine(long [] a, long [] b)
+    {
+        int both = 0;
+        for (int w = 0; w < a.length; w++)
+        {
+            both += Long.bitCount(a[w] & b[w]);
+        }
+        return (both == 0) ? 0 : both / Math.sqrt((double) popcount(a) * popcount(b));
+    }
+
+    static int popcount(long [] bits)
+    {
+        int count = 0;
+        for (long word : bits) count += Long.bitCount(word);
+        return count;
+    }
+
+    public int getNumRuns()
+    {
+        return matrices.size();
+    }
+
+    /** Element-wise mean of the similarity matrices of all runs. */
+    public double [][] getMeanMatrix()
+    {
+        int timesteps = matrices.get(0).length;
+        double [][] mean = new double[timesteps][timesteps];
+        for (double [][] m : matrices)
+        {
+            if (m.length != timesteps) throw new RuntimeException("Runs have different numbers of timesteps");
+            for (int i = 0; i < timesteps; i++)
+                for (int j = 0; j < timesteps; j++)
+                    mean[i][j] += m[i][j] / matrices.size();
+        }
+        return mean;
+    }
+
+    /** Writes similarity.txt (the mean matrix) and curve.txt (timestep, mean and standard
+     * error of the similarity of timestep start to each of start..end) into directory. */
+    public void write(File directory) throws IOException
+    {
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(directory, "similarity.txt"))));
+        for (double [] row : getMeanMatrix())
+        {
+            StringBuilder line = new StringBuilder();
+            for (double value : row) line.append(value).append(' ');
+            out.println(line.toString().trim());
+        }
+        out.close();
+
+        int runs = matrices.size();
+        out = new PrintStream(new FileOutputStream(new File(directory, "curve.txt")));
+        out.println("timestep mean sem");
+        for (int t = start; t <= end && t <= matrices.get(0).length; t++)
+        {
+            double sum = 0;
+            for (double [][] m : matrices) sum += m[start-1][t-1];
+            double mean = sum / runs;
+            double squares = 0;
+            for (double [][] m : matrices) squares += (m[start-1][t-1] - mean) * (m[start-1][t-1] - mean);
+            // One run has no spread to estimate; R reads NA as missing.
+            String sem = (runs < 2) ? "NA" : Double.toString(Math.sqrt(squares / (runs - 1)) / Math.sqrt(runs));
+            out.println(t + " " + mean + " " + sem);
+        }
+        out.close();
+    }
+
+    /** Reads a whole binary (.bin) or text raster into memory. */
+    public static MemoryRaster read(File file) throws IOException
+    {
+        if (file.getName().endsWith(".bin"))
+        {
+            RasterReader reader = new RasterReader(file);
+            MemoryRaster raster = new MemoryRaster(reader.getNumNeurons());
+            reader.copyTo(raster);
+            reader.close();
+            return raster;
+        }
+
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        MemoryRaster raster = null;
+        long [] bits = null;
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            line = line.trim();
+            if (line.length() == 0) continue;
+            int numNeurons = (line.length() + 1) / 2;
+            if (raster == null)
+            {
+                raster = new MemoryRaster(numNeurons);
+                raster.beginTrial();
+                bits = new long[(numNeurons + 63) >>> 6];
+            }
+            Arrays.fill(bits, 0L);
+            for (int i = 0; i < numNeurons; i++)
+            {
+                if (line.charAt(2*i) == '1') bits[i >>> 6] |= 1L << i;
+            }
+            raster.record(bits);
+        }
+        in.close();
+        if (raster == null) throw new IOException(file + " is empty");
+        return raster;
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        SimilarityAnalysis analysis = new SimilarityAnalysis();
+        int first = 0;
+        if (args.length > 2 && args[0].matches("\\d+") && args[1].matches("\\d+"))
+        {
+            analysis.start = Integer.parseInt(args[0]);
+            analysis.end = Integer.parseInt(args[1]);
+            first = 2;
+        }
+        if (args.length <= first)
+        {
+            System.err.println("Usage: java net.pakl.levy.SimilarityAnalysis [start end] raster...");
+            System.exit(1);
+        }
+        List<MemoryRaster> rasters = new ArrayList<MemoryRaster>();
+        for (int i = first; i < args.length; i++)
+        {
+            rasters.add(read(new File(args[i])));
+        }
+        WorkerPool pool = new WorkerPool(Runtime.getRuntime().availableProcessors());
+        analysis.addRuns(rasters, pool);
+        pool.shutdown();
+        analysis.write(new File("."));
+        System.err.println("Wrote similarity.txt and curve.txt for " + analysis.getNumRuns() + " runs");
+    }
+}
@@ -17,16 +17,21 @@ public class Simulation
     
     public static void main(String args[]) throws Exception
     {
-        Net net = new Net();
-        net.numNeurons = 2048;
         Properties p = new Properties();
         p.load(new FileInputStream("levy.prop"));
+        Net net = Net.forEngine(p.getProperty("engine"));
+        net.numNeurons = 2048;
         net.K0 = new Double(p.getProperty("K0")).doubleValue();
         net.Kr = new Double(p.getProperty("Kr")).doubleValue();
         net.Ki = new Double(p.getProperty("Ki")).doubleValue();        
         net.w0 = new Double(p.getProperty("w0")).doubleValue();
         net.desiredActivity = new Double(p.getProperty("a")).doubleValue();        
-        System.err.println("Initializing network");
+        if (p.getProperty("threads")!=null) net.numThreads = new Integer(p.getProperty("threads"));
+        if (p.getProperty("seed")!=null) net.seed = new Long(p.getProperty("seed"));
+        if (p.getProperty("weightPrecision")!=null) net.weightPrecision = p.getProperty("weightPrecision").trim();
+        if (p.getProperty("deltaFeedforward")!=null) if (p.getProperty("deltaFeedforward").trim().equalsIgnoreCase("true")) net.deltaFeedforward = true;
+        net.kWinners.random = new RandomStreams(net.seed).stream(RandomStreams.Purpose.TIE_BREAK, 0);
+        System.err.println("Initializing network (seed " + net.seed + ", " + net.numThreads + " threads)");
         long beforeWiring = System.currentTimeMillis();
         net.initialize();
         long afterWiring = System.currentTimeMillis();
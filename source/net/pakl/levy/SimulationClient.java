@@ -0,0 +1,69 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/** Submits a simulation to a running SimulationServer and waits for it:
+ * <pre>  java net.pakl.levy.SimulationClient [host:]port levy.prop outputDirectory
+ *  java net.pakl.levy.SimulationClient [host:]port status|shutdown</pre>
+ * The run's progress is printed on standard error and the server's last line on standard
+ * output; the exit status is 1 if the job failed.  Relative paths (the output directory and
+ * resumeFrom) are made absolute here, since the server has its own working directory. */
+public class SimulationClient
+{
+    public static void main(String args[]) throws Exception
+    {
+        if (args.length != 2 && args.length != 3)
+        {
+            System.err.println("Usage: java net.pakl.levy.SimulationClient [host:]port levy.prop outputDirectory");
+            System.err.println("       java net.pakl.levy.SimulationClient [host:]port status|shutdown");
+            System.exit(2);
+        }
+        String host = "localhost";
+        String port = args[0];
+        if (port.indexOf(':') >= 0)
+        {
+            host = port.substring(0, port.lastIndexOf(':'));
+            port = port.substring(port.lastIndexOf(':') + 1);
+        }
+        Socket socket = new Socket(host, Integer.parseInt(port));
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)));
+        if (args.length == 2)
+        {
+            out.println(args[1].toUpperCase());
+        }
+        else
+        {
+            Properties p = new Properties();
+            InputStream settings = new FileInputStream(args[1]);
+            p.load(settings);
+            settings.close();
+            if (p.getProperty("resumeFrom")!=null)
+            {
+                p.setProperty("resumeFrom", new File(p.getProperty("resumeFrom").trim()).getAbsolutePath());
+            }
+            out.println("RUN " + new File(args[2]).getAbsolutePath());
+            StringWriter lines = new StringWriter();
+            p.store(lines, null);
+            out.print(lines.toString());
+            out.println(".");
+        }
+        out.flush();
+
+        boolean failed = false;
+        boolean finished = (args.length == 2);
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            if (line.startsWith("LOG ")) System.err.println(line.substring(4));
+            else System.out.println(line);
+            if (line.startsWith("FAILED ")) failed = true;
+            if (line.startsWith("DONE ")) finished = true;
+        }
+        socket.close();
+        System.exit((failed || !finished) ? 1 : 0);
+    }
+}
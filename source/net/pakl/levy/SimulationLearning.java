@@ -4,31 +4,72 @@ import java.util.*;
 import java.io.*;
 
 
+/** Trains a network on a (stuttered) sequence of patterns and then tests its recall
+ * from the first pattern, writing firing rasters to outputDirectory.  The settings
+ * come from a levy.prop file; see README.txt. */
 public class SimulationLearning
 {
 
-    public static int trainingTrials = 120;
-    public static int testingTrials = 10;
-    public static int earlyTrialToSave = 10;
+    public int trainingTrials = 120;
+    public int testingTrials = 10;
+    public int earlyTrialToSave = 10;
 
-    public static void main(String args[]) throws Exception
-    {
-        long startTime = System.currentTimeMillis();
-        Net net = new Net();
+    int sequenceLength = 20;
+    int stutter = 1;
+    int numOnPerTimestep = 20;
+    int spacing = 5;
+    double pExternalOffNoise = 0;
+    double desiredActivityOnLastTrain = 0;
+    String rasterFormat = "text";
 
-        int sequenceLength = 20;
-        int stutter = 1;
-        int numOnPerTimestep = 20;
-        int spacing = 5;
-        double pExternalOffNoise = 0;
-        double connectionProbability = 0.1;
+    /** Save a checkpoint after every this many training trials (0 for never). */
+    int checkpointEvery = 0;
+    File checkpointFile = new File("checkpoint.bin");
+
+    /** Checkpoint to continue from instead of wiring a new network, or null. */
+    File resumeFrom = null;
+
+    /** Which trials, timesteps and neurons go into levyneurons. */
+    RecordingPolicy recording;
+
+    /** When to skip the remaining training trials but the last. */
+    Convergence convergence;
+
+    /** Training trials skipped because training had converged. */
+    int trainingTrialsSkipped = 0;
+
+    /** Compute RunStatistics while running. */
+    boolean statistics = false;
+
+    /** Run this many testing trials at a time, each on its own fork of the trained network
+     * (see RecallBattery), instead of one after another on the network itself (0). */
+    int testingInParallel = 0;
 
-        double desiredActivityOnLastTrain = 0;
+    /** The network being trained, created (but not yet initialized) from the settings. */
+    public Net net;
 
+    /** Where the rasters are written. */
+    public File outputDirectory = new File(".");
+
+    /** Where progress is reported. */
+    public PrintStream log = System.err;
+
+    /** Source of all randomness in the run, seeded from the network seed. */
+    RandomStreams random;
+
+    /** Rasters opened and not yet closed (see run()). */
+    private final List<RasterSink> openRasters = new ArrayList<RasterSink>();
+
+    /** Scratch space for each trial's initial firing (see chooseInitialFiring). */
+    int [] initialFiring = new int[0];
+    long [] initialFiringChosen;
+
+    public SimulationLearning(Properties p) throws Exception
+    {
+        double connectionProbability = 0.1;
         try
         {
-            Properties p = new Properties();
-            p.load(new FileInputStream("levy.prop"));
+            net = Net.forEngine(p.getProperty("engine"));
             if (p.getProperty("K0")!=null) net.K0 = new Double(p.getProperty("K0")).doubleValue();
             if (p.getProperty("Kr")!=null) net.Kr = new Double(p.getProperty("Kr")).doubleValue();
             if (p.getProperty("Ki")!=null) net.Ki = new Double(p.getProperty("Ki")).doubleValue();
@@ -45,7 +86,28 @@ public class SimulationLearning
             if (p.getProperty("pExternalOffNoise")!=null) pExternalOffNoise = new Double(p.getProperty("pExternalOffNoise"));
             if (p.getProperty("connectionProbability")!=null) connectionProbability = new Double(p.getProperty("connectionProbability"));
             if (p.getProperty("isCompetitive")!=null) if (p.getProperty("isCompetitive").equalsIgnoreCase("true")) net.isCompetitive = true;
+            if (p.getProperty("threads")!=null) net.numThreads = new Integer(p.getProperty("threads"));
+            if (p.getProperty("seed")!=null) net.seed = new Long(p.getProperty("seed"));
+            if (p.getProperty("weightPrecision")!=null) net.weightPrecision = p.getProperty("weightPrecision").trim();
             if (p.getProperty("earlyTrialToSave")!=null) earlyTrialToSave = new Integer(p.getProperty("earlyTrialToSave"));
+            if (p.getProperty("rasterFormat")!=null) rasterFormat = p.getProperty("rasterFormat").trim();
+            if (p.getProperty("testingTrials")!=null) testingTrials = new Integer(p.getProperty("testingTrials"));
+            if (p.getProperty("checkpointEvery")!=null) checkpointEvery = new Integer(p.getProperty("checkpointEvery"));
+            if (p.getProperty("checkpointFile")!=null) checkpointFile = new File(p.getProperty("checkpointFile").trim());
+            if (p.getProperty("resumeFrom")!=null) resumeFrom = new File(p.getProperty("resumeFrom").trim());
+            if (p.getProperty("testingInParallel")!=null) testingInParallel = new Integer(p.getProperty("testingInParallel").trim());
+            if (p.getProperty("renumber")!=null) net.renumber = p.getProperty("renumber").trim();
+            if (p.getProperty("deltaFeedforward")!=null) if (p.getProperty("deltaFeedforward").trim().equalsIgnoreCase("true")) net.deltaFeedforward = true;
+            if (net instanceof DistributedNet)
+            {
+                DistributedNet d = (DistributedNet) net;
+                if (p.getProperty("workers")!=null) d.numWorkers = new Integer(p.getProperty("workers").trim());
+                if (p.getProperty("transport")!=null) d.transportName = p.getProperty("transport").trim();
+                if (p.getProperty("workerPort")!=null) d.workerPort = new Integer(p.getProperty("workerPort").trim());
+                if (p.getProperty("workerOptions")!=null) d.workerOptions = p.getProperty("workerOptions").trim();
+            }
+            if (p.getProperty("kernels")!=null) net.kernels = p.getProperty("kernels").trim();
+            if (p.getProperty("instrument")!=null) if (p.getProperty("instrument").trim().equalsIgnoreCase("true")) net.instrumentation.enabled = true;
 
             net.connectionProbability = connectionProbability;
 
@@ -53,6 +115,9 @@ public class SimulationLearning
             stutter = new Integer(p.getProperty("stutter")).intValue();            
             sequenceLength = new Integer(p.getProperty("sequenceLength")).intValue(); 
             numOnPerTimestep = new Integer(p.getProperty("patternSize")).intValue();
+            if (p.getProperty("statistics")!=null) if (p.getProperty("statistics").trim().equalsIgnoreCase("true")) statistics = true;
+            recording = new RecordingPolicy(p, trainingTrials, testingTrials, sequenceLength * stutter, net.numNeurons);
+            convergence = new Convergence(p, sequenceLength * stutter, net.numNeurons);
         }
         catch (Exception e)
         {
@@ -60,81 +125,325 @@ public class SimulationLearning
             System.err.println("Problem loading properties from levy.prop.");
             throw e;
         }
-        
-        
-        net.initialize();
+        random = new RandomStreams(net.seed);
+    }
 
-        
-        boolean [][] input = new boolean[sequenceLength*stutter][net.numNeurons];
+    public static Properties loadProperties(File file) throws IOException
+    {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            p.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        return p;
+    }
 
-        int t = 0;
-        for (int pattern = 0; pattern < sequenceLength; pattern++)
+    public static void main(String args[]) throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        new SimulationLearning(loadProperties(new File("levy.prop"))).run();
+        System.out.println("Total run time: " + ((System.currentTimeMillis() - startTime) /1000.0d) + " seconds.");
+    }
+
+    /** Number of network timesteps run(), counting the initial firing step of each trial. */
+    public long getTimestepsSimulated()
+    {
+        return (long) (trainingTrials - trainingTrialsSkipped + testingTrials) * (sequenceLength * stutter + 1);
+    }
+
+    /** Wires the network (or restores it from resumeFrom), trains it and tests recall,
+     * writing the rasters.  Whether or not it succeeds, the rasters are closed and the
+     * network's threads (and distributed workers) released. */
+    public void run() throws IOException
+    {
+        try
+        {
+            simulate();
+        }
+        finally
         {
-            for (int j = (pattern*spacing); j < (pattern*spacing)+numOnPerTimestep; j++)
+            // Only still open if simulate() failed; keep its exception rather than any from closing.
+            for (RasterSink raster : openRasters)
             {
-                for (int s = 0; s < stutter; s++)
+                try
+                {
+                    raster.close();
+                }
+                catch (Exception e)
                 {
-                    input[t+s][j] = true;
                 }
             }
-            t = t + stutter;
+            openRasters.clear();
+            net.close();
+        }
+    }
+
+    /** Remembers raster as open until simulate() closes it, and returns it. */
+    RasterSink keepOpen(RasterSink raster)
+    {
+        openRasters.add(raster);
+        return raster;
+    }
+
+    /** The body of run(). */
+    void simulate() throws IOException
+    {
+        int firstTrial = 0;
+        if (resumeFrom != null)
+        {
+            firstTrial = resume();
+        }
+        else
+        {
+            log.println("Initializing network (seed " + net.seed + ", " + net.numThreads + " threads, " + Kernels.forName(net.kernels).getName() + " kernels)");
+            long beforeWiring = System.currentTimeMillis();
+            net.initialize();
+            long afterWiring = System.currentTimeMillis();
+            log.println("  Wiring took " + (afterWiring-beforeWiring) + " ms");
+            if (net instanceof ArrayNet && ((ArrayNet) net).originalIndex != null)
+            {
+                ArrayNet a = (ArrayNet) net;
+                log.println("  Renumbered (" + net.renumber + "): half the synapses join neurons at most "
+                        + Renumbering.bandwidth(a.numNeurons, a.rowStart, a.targets, 0.5) + " apart");
+            }
         }
 
-        PrintStream myOutput = new PrintStream(new FileOutputStream("levyneurons.txt"));
-        PrintStream finalTrain = new PrintStream(new FileOutputStream("finaltrain.txt"));
-        PrintStream earlyTrain = new PrintStream(new FileOutputStream("earlytrain.txt"));
-        PrintStream finalTest = new PrintStream(new FileOutputStream("finaltest.txt"));
+        // The neurons each external input turns on, in ascending order.
+        int [][] input = new int[sequenceLength*stutter][];
+        int [] noisyInput = new int[numOnPerTimestep];
+
+        int t = 0;
+        for (int pattern = 0; pattern < sequenceLength; pattern++)
+        {
+            int [] on = pattern(pattern);
+            for (int s = 0; s < stutter; s++)
+            {
+                input[t+s] = on;
+            }
+            t = t + stutter;
+        }
 
         int timestepsPerTrial = sequenceLength * stutter;
-        for (int i = 0; i < trainingTrials; i++)
+        RasterSink myOutput = keepOpen(recording.select(openRaster("levyneurons", recording.getNumRecordedNeurons(net.numNeurons),
+                recording.getNumRecordedTimesteps(timestepsPerTrial))));
+        RasterSink finalTrain = keepOpen(openRaster("finaltrain", net.numNeurons, timestepsPerTrial));
+        RasterSink earlyTrain = keepOpen(openRaster("earlytrain", net.numNeurons, timestepsPerTrial));
+        RasterSink finalTest = keepOpen(openRaster("finaltest", net.numNeurons, timestepsPerTrial));
+        long [] firingBits = new long[(net.numNeurons + 63) / 64];
+        RunStatistics stats = null;
+        if (statistics)
         {
-            System.err.print("\n Train "+i+ " ");
+            stats = new RunStatistics(net.numNeurons, trainingTrials, testingTrials, timestepsPerTrial);
+            stats.weights(firstTrial, net);
+        }
+
+        for (int i = firstTrial; i < trainingTrials; i++)
+        {
+            log.print("\n Train "+i+ " ");
 
             if (i == trainingTrials-1) { net.desiredActivity = desiredActivityOnLastTrain; }
 
-            applyInitialFiring(net);
+            SplittableRandom noise = beginTrial(i);
+            if (recording.recordsTrial(i)) myOutput.beginTrial();
+            if (i == earlyTrialToSave) earlyTrain.beginTrial();
+            if (i == trainingTrials-1) finalTrain.beginTrial();
+            boolean trialSaved = (i == earlyTrialToSave || i == trainingTrials-1 || stats != null || convergence.isEnabled());
             
             for (t = 0; t < timestepsPerTrial; t++)
             {
                 if (t < sequenceLength*stutter) 
                 {
-                    net.externallyFire(offNoise(input[t], pExternalOffNoise));
+                    net.externallyFire(noisyInput, offNoise(input[t], pExternalOffNoise, noise, noisyInput));
                 }
                     
                 net.feedforward();
                 net.update();
-                myOutput.println(net.getFirings());
-                if (i == earlyTrialToSave) earlyTrain.println(net.getFirings());
-                if (i == trainingTrials-1) finalTrain.println(net.getFirings());
+                boolean recorded = recording.records(i, t);
+                if (!recorded && !trialSaved) continue;
+                long start = net.instrumentation.begin();
+                net.getFiringBits(firingBits);
+                int rows = 0;
+                if (recorded) { myOutput.record(firingBits); rows++; }
+                if (i == earlyTrialToSave) { earlyTrain.record(firingBits); rows++; }
+                if (i == trainingTrials-1) { finalTrain.record(firingBits); rows++; }
+                if (stats != null) stats.timestep(i, t, firingBits, input[t]);
+                if (convergence.isEnabled()) convergence.timestep(t, firingBits);
+                net.instrumentation.end(Instrumentation.Phase.OUTPUT, start, rows);
+            }
+            if (stats != null) stats.weights(i+1, net);
+
+            if (checkpointEvery > 0 && ((i+1) % checkpointEvery == 0 || i == trainingTrials-1))
+            {
+                Checkpoint.save(net, i+1, checkpointFile.isAbsolute() ? checkpointFile : new File(outputDirectory, checkpointFile.getPath()));
+            }
+
+            // Once converged, go straight to the final training trial (after the early one is saved).
+            if (!convergence.isEnabled()) continue;
+            boolean converged = convergence.endTrial();
+            if (i > firstTrial) log.print("similarity " + convergence.getLastSimilarity());
+            if (converged && i >= earlyTrialToSave && i < trainingTrials-2)
+            {
+                trainingTrialsSkipped = trainingTrials-2 - i;
+                log.print("\n Converged (similarity " + convergence.getLastSimilarity() + "), skipping "
+                        + trainingTrialsSkipped + " training trials");
+                i = trainingTrials-2;
             }
         }
 
         timestepsPerTrial = sequenceLength * stutter;
         net.learningRate = 0;
-        for (int i = 0; i < testingTrials; i++)
+        if (testingInParallel > 0)
         {
-            applyInitialFiring(net);
-
-
-            for (t = 0; t < timestepsPerTrial; t++)
+            testInParallel(input, timestepsPerTrial, myOutput, finalTest, stats);
+        }
+        else
+        {
+            for (int i = 0; i < testingTrials; i++)
             {
-                if (t < stutter) net.externallyFire(offNoise(input[0], pExternalOffNoise)); // give initial pattern of sequence as recall cue.
-                net.feedforward();
-                net.update();
-                myOutput.println(net.getFirings());
+                SplittableRandom noise = beginTrial(trainingTrials + i);
+                if (recording.recordsTrial(trainingTrials + i)) myOutput.beginTrial();
+                if (i == testingTrials-1) finalTest.beginTrial();
+                boolean trialSaved = (i == testingTrials-1 || stats != null);
 
-                if (i == testingTrials-1) finalTest.println(net.getFirings());
+
+                for (t = 0; t < timestepsPerTrial; t++)
+                {
+                    if (t < stutter) net.externallyFire(noisyInput, offNoise(input[0], pExternalOffNoise, noise, noisyInput)); // give initial pattern of sequence as recall cue.
+                    net.feedforward();
+                    net.update();
+                    boolean recorded = recording.records(trainingTrials + i, t);
+                    if (!recorded && !trialSaved) continue;
+                    long start = net.instrumentation.begin();
+                    net.getFiringBits(firingBits);
+                    int rows = 0;
+                    if (recorded) { myOutput.record(firingBits); rows++; }
+                    if (i == testingTrials-1) { finalTest.record(firingBits); rows++; }
+                    if (stats != null) stats.timestep(trainingTrials + i, t, firingBits, input[t]);
+                    net.instrumentation.end(Instrumentation.Phase.OUTPUT, start, rows);
+                }
             }
         }
-        System.err.println("");
+        log.println("");
         myOutput.close();
         finalTrain.close();
         finalTest.close();
         earlyTrain.close();
-        System.out.println("Total run time: " + ((System.currentTimeMillis() - startTime) /1000.0d) + " seconds.");
+        openRasters.clear();
+        if (stats != null)
+        {
+            stats.write(outputDirectory);
+        }
+        if (net.instrumentation.enabled)
+        {
+            net.instrumentation.writeSummary(log, net.numNeurons);
+        }
+    }
+
+    /** Runs the testing trials testingInParallel at a time on forks of the trained network
+     * and writes their rasters in trial order. */
+    void testInParallel(int [][] input, int timestepsPerTrial, RasterSink myOutput, RasterSink finalTest, RunStatistics stats) throws IOException
+    {
+        if (!(net instanceof ArrayNet))
+        {
+            throw new RuntimeException("testingInParallel needs engine = array or procedural");
+        }
+        RecallBattery battery = new RecallBattery((ArrayNet) net, timestepsPerTrial);
+        for (int i = 0; i < testingTrials; i++)
+        {
+            battery.add(trainingTrials + i, input[0], stutter, pExternalOffNoise);
+        }
+        battery.run(testingInParallel);
+        for (int i = 0; i < testingTrials; i++)
+        {
+            RecallBattery.Trial trial = battery.getTrials().get(i);
+            long start = net.instrumentation.begin();
+            if (recording.recordsTrial(trainingTrials + i)) myOutput.beginTrial();
+            for (int t = 0; t < timestepsPerTrial; t++)
+            {
+                long [] firingBits = trial.raster.getRow(t);
+                if (recording.records(trainingTrials + i, t)) myOutput.record(firingBits);
+                if (stats != null) stats.timestep(trainingTrials + i, t, firingBits, input[t]);
+            }
+            if (i == testingTrials-1) trial.writeTo(finalTest);
+            net.instrumentation.end(Instrumentation.Phase.OUTPUT, start, 0);
+        }
+    }
+
+    /** The neurons of input pattern number p, in ascending order. */
+    int [] pattern(int p)
+    {
+        int [] on = new int[numOnPerTimestep];
+        for (int j = 0; j < numOnPerTimestep; j++)
+        {
+            on[j] = (p*spacing) + j;
+        }
+        return on;
+    }
+
+    /** Replaces net with the network saved in resumeFrom, keeping this run's thread count,
+     * and returns the number of training trials it had completed.  Because every trial draws
+     * from its own random streams, the continued run matches an uninterrupted one. */
+    int resume() throws IOException
+    {
+        long beforeLoading = System.currentTimeMillis();
+        Checkpoint checkpoint = Checkpoint.load(resumeFrom);
+        if (checkpoint.net.numNeurons != net.numNeurons)
+        {
+            throw new RuntimeException(resumeFrom + " holds " + checkpoint.net.numNeurons + " neurons but n = " + net.numNeurons);
+        }
+        checkpoint.net.numThreads = net.numThreads;
+        checkpoint.net.deltaFeedforward = net.deltaFeedforward;
+        checkpoint.net.kernels = net.kernels;
+        checkpoint.net.checkDeltaFeedforward();
+        checkpoint.net.instrumentation = net.instrumentation;
+        net = checkpoint.net;
+        random = new RandomStreams(net.seed);
+        log.println("Resumed from " + resumeFrom + " after " + checkpoint.completedTrials + " training trials (seed "
+                + net.seed + ") in " + (System.currentTimeMillis() - beforeLoading) + " ms");
+        return checkpoint.completedTrials;
+    }
+
+    /** Gives the network the tie-breaking stream of the given trial (counting testing trials
+     * after training trials), applies its random initial firing, and returns its noise stream. */
+    SplittableRandom beginTrial(int trial)
+    {
+        int numNeeded = (int) (net.numNeurons*net.desiredActivity);
+        if (initialFiring.length < numNeeded) initialFiring = new int[numNeeded];
+        if (initialFiringChosen == null) initialFiringChosen = new long[(net.numNeurons + 63) >>> 6];
+        return beginTrial(net, random, trial, initialFiring, initialFiringChosen);
+    }
+
+    /** beginTrial(int) for any network and streams, with scratch space for chooseInitialFiring. */
+    static SplittableRandom beginTrial(Net net, RandomStreams random, int trial, int [] initialFiring, long [] chosen)
+    {
+        net.kWinners.random = random.stream(RandomStreams.Purpose.TIE_BREAK, trial);
+        int count = chooseInitialFiring(net.numNeurons, net.desiredActivity,
+                random.stream(RandomStreams.Purpose.INITIAL_FIRING, trial), chosen, initialFiring);
+        applyInitialFiring(net, initialFiring, count);
+        return random.stream(RandomStreams.Purpose.NOISE, trial);
+    }
+
+    /** Opens name.txt in the text raster format, or name.bin if rasterFormat is "binary",
+     * for rows of numNeurons neurons. */
+    RasterSink openRaster(String name, int numNeurons, int timestepsPerTrial) throws IOException
+    {
+        if (rasterFormat.equalsIgnoreCase("binary"))
+        {
+            return new BinaryRaster(new File(outputDirectory, name + ".bin"), numNeurons, timestepsPerTrial);
+        }
+        if (rasterFormat.equalsIgnoreCase("text"))
+        {
+            return new TextRaster(new File(outputDirectory, name + ".txt"), numNeurons);
+        }
+        throw new RuntimeException("Unknown rasterFormat \"" + rasterFormat + "\" (expected text or binary)");
     }
 
-    public static boolean[] offNoise(boolean[] pattern, double probabilityOfTurnOff)
+    public static boolean[] offNoise(boolean[] pattern, double probabilityOfTurnOff, SplittableRandom random)
     {
         boolean [] result = new boolean[pattern.length];
         
@@ -142,7 +451,7 @@ public class SimulationLearning
         {
             if (pattern[i] == true)
             {
-                if (Math.random() < probabilityOfTurnOff)
+                if (random.nextDouble() < probabilityOfTurnOff)
                 {
                     result[i] = false;
                 }
@@ -155,30 +464,60 @@ public class SimulationLearning
         return result;
     }
         
-    public static void applyInitialFiring(Net net)
+    /** Copies the neurons of pattern into result, leaving out each with probability
+     * probabilityOfTurnOff, and returns how many were kept.  It makes the same draws as
+     * offNoise(boolean[], ...) on the same pattern, so with a sorted pattern the two agree,
+     * but it costs time in proportion to the pattern size and allocates nothing. */
+    public static int offNoise(int [] pattern, double probabilityOfTurnOff, SplittableRandom random, int [] result)
+    {
+        int kept = 0;
+        for (int k = 0; k < pattern.length; k++)
+        {
+            if (random.nextDouble() >= probabilityOfTurnOff)
+            {
+                result[kept++] = pattern[k];
+            }
+        }
+        return kept;
+    }
+
+    /** Chooses (int) (numNeurons*activity) distinct neurons into result and returns how many:
+     * neurons are visited in order, each taken with probability activity, in as many passes
+     * as it takes.  chosen is a scratch bitset of numNeurons bits, all zero on entry and left
+     * all zero. */
+    public static int chooseInitialFiring(int numNeurons, double activity, SplittableRandom random, long [] chosen, int [] result)
     {
-            boolean [] initialFiring = new boolean[net.numNeurons];
-            int numNeeded = (int) (net.numNeurons*net.desiredActivity);
-            while (numNeeded > 0)
+        int numNeeded = (int) (numNeurons*activity);
+        int count = 0;
+        while (count < numNeeded)
+        {
+            for (int i = 0; i < numNeurons; i++)
             {
-                for (int i = 0; i < net.numNeurons; i++)
+                if (count == numNeeded) break;
+                if (random.nextDouble() < activity)
                 {
-                    if (numNeeded == 0) break;
-                    if (Math.random() < net.desiredActivity)
+                    if ((chosen[i >>> 6] & (1L << i)) == 0)
                     {
-                        if (initialFiring[i] == false)
-                        {
-                            initialFiring[i] = true;
-                            numNeeded--;
-                        }
-
+                        chosen[i >>> 6] |= 1L << i;
+                        result[count++] = i;
                     }
                 }
             }
-            net.divineInterventionFire(initialFiring);
-            net.feedforward();
-            net.update();
-            
+        }
+        for (int k = 0; k < count; k++)
+        {
+            chosen[result[k] >>> 6] = 0;
+        }
+        return count;
+    }
+
+    /** Starts a trial from random activity: fires neurons[0..count-1] without feedforward
+     * inhibition and runs one timestep. */
+    public static void applyInitialFiring(Net net, int [] neurons, int count)
+    {
+        net.divineInterventionFire(neurons, count);
+        net.feedforward();
+        net.update();
     }
     
 }
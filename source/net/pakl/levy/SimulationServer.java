@@ -0,0 +1,273 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+
+/** Keeps one JVM running for many short simulations, so only the first pays for JVM
+ * start-up, class loading and JIT compilation.
+ * <pre>  java net.pakl.levy.SimulationServer [port=7077] [jobsAtOnce=cores]</pre>
+ * listens on the loopback interface and runs each job submitted with SimulationClient like
+ * SimulationLearning would, at most jobsAtOnce at a time and the rest in order of arrival.
+ * The protocol is lines of UTF-8 text; a job is
+ * <pre>
+ *   RUN outputDirectory          (absolute: the server's working directory is not the client's)
+ *   levy.prop lines ...
+ *   .
+ * </pre>
+ * and the server answers "QUEUED job ahead" (jobs waiting before it), then "LOG text" for
+ * each line of the run's progress (also kept in outputDirectory/run.log), and finally
+ * "DONE job seconds timestepsPerSecond" or "FAILED job message".  "STATUS" lists the
+ * running and waiting jobs and "SHUTDOWN" stops the server once they are done. */
+public class SimulationServer
+{
+    public static final int DEFAULT_PORT = 7077;
+
+    /** How long a client may take to send its request, so that one that never does cannot
+     * hold up SHUTDOWN. */
+    static final int REQUEST_MILLIS = 60000;
+
+    private final ServerSocket server;
+    private final ExecutorService pool;
+    private final AtomicInteger nextJob = new AtomicInteger(1);
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final Map<Integer, String> jobs = new ConcurrentSkipListMap<Integer, String>();
+    private final Set<Thread> handlers = ConcurrentHashMap.newKeySet();
+
+    public SimulationServer(int port, int jobsAtOnce) throws IOException
+    {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        pool = Executors.newFixedThreadPool(Math.max(1, jobsAtOnce));
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int jobsAtOnce = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        SimulationServer simulationServer = new SimulationServer(port, jobsAtOnce);
+        System.err.println("Simulation server on port " + simulationServer.server.getLocalPort()
+                + ", " + jobsAtOnce + " jobs at a time");
+        simulationServer.serve();
+    }
+
+    /** Accepts clients until SHUTDOWN, then waits for the jobs already submitted and for
+     * their clients to be told how they ended. */
+    public void serve() throws InterruptedException
+    {
+        while (!server.isClosed())
+        {
+            final Socket client;
+            try
+            {
+                client = server.accept();
+            }
+            catch (IOException e)
+            {
+                if (server.isClosed()) break;
+                System.err.println("Accept failed: " + e);
+                continue;
+            }
+            Thread handler = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        handle(client);
+                    }
+                    finally
+                    {
+                        handlers.remove(Thread.currentThread());
+                    }
+                }
+            }, "levy-client");
+            handler.setDaemon(true);
+            handlers.add(handler);
+            handler.start();
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        for (Thread handler : handlers)
+        {
+            handler.join();
+        }
+    }
+
+    /** Reads one request from client and answers it. */
+    private void handle(Socket client)
+    {
+        try
+        {
+            client.setSoTimeout(REQUEST_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)));
+            String request = in.readLine();
+            if (request == null) return;
+            if (request.startsWith("RUN "))
+            {
+                File directory = new File(request.substring(4).trim());
+                StringBuilder settings = new StringBuilder();
+                String line;
+                while ((line = in.readLine()) != null && !line.equals("."))
+                {
+                    settings.append(line).append('\n');
+                }
+                Properties p = new Properties();
+                p.load(new StringReader(settings.toString()));
+                run(p, directory, out);
+            }
+            else if (request.equals("STATUS"))
+            {
+                for (Map.Entry<Integer, String> job : jobs.entrySet())
+                {
+                    out.println(job.getKey() + " " + job.getValue());
+                }
+                out.println(".");
+            }
+            else if (request.equals("SHUTDOWN"))
+            {
+                out.println("STOPPING after " + jobs.size() + " jobs");
+                out.flush();
+                server.close();
+            }
+            else
+            {
+                out.println("FAILED 0 unknown request " + request);
+            }
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Client " + client.getRemoteSocketAddress() + ": " + e);
+        }
+        finally
+        {
+            try
+            {
+                client.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    /** Queues a simulation with settings p writing to directory, reporting to out until it ends. */
+    private void run(final Properties p, final File directory, final PrintWriter out)
+    {
+        final int job = nextJob.getAndIncrement();
+        if (!directory.isAbsolute())
+        {
+            reply(out, "FAILED " + job + " output directory " + directory + " is not absolute");
+            return;
+        }
+        jobs.put(job, "waiting " + directory);
+        reply(out, "QUEUED " + job + " " + waiting.getAndIncrement());
+        Future<String> result = pool.submit(new Callable<String>()
+        {
+            public String call() throws Exception
+            {
+                waiting.decrementAndGet();
+                jobs.put(job, "running " + directory);
+                try
+                {
+                    return runJob(p, directory, out);
+                }
+                finally
+                {
+                    jobs.remove(job);
+                }
+            }
+        });
+        try
+        {
+            reply(out, "DONE " + job + " " + result.get());
+        }
+        catch (ExecutionException e)
+        {
+            reply(out, "FAILED " + job + " " + e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            reply(out, "FAILED " + job + " interrupted");
+        }
+    }
+
+    /** Runs one simulation, copying its log to run.log and to the client, and returns
+     * "seconds timestepsPerSecond". */
+    private String runJob(Properties p, File directory, final PrintWriter out) throws Exception
+    {
+        directory.mkdirs();
+        OutputStream propCopy = new FileOutputStream(new File(directory, "levy.prop"));
+        p.store(propCopy, "Submitted to SimulationServer");
+        propCopy.close();
+
+        long startTime = System.currentTimeMillis();
+        SimulationLearning simulation = new SimulationLearning(p);
+        final OutputStream file = new BufferedOutputStream(new FileOutputStream(new File(directory, "run.log")));
+        simulation.outputDirectory = directory;
+        simulation.log = new PrintStream(new LineForwarder(file, out), false, "UTF-8");
+        try
+        {
+            simulation.run();
+        }
+        finally
+        {
+            simulation.log.close();
+        }
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0d;
+        return seconds + " " + Math.round(simulation.getTimestepsSimulated() / seconds);
+    }
+
+    private static void reply(PrintWriter out, String line)
+    {
+        synchronized (out)
+        {
+            out.println(line);
+            out.flush();
+        }
+    }
+
+    /** Writes everything to file and sends each complete non-blank line to the client as
+     * "LOG line"; a client that has gone away only stops receiving. */
+    static class LineForwarder extends OutputStream
+    {
+        private final OutputStream file;
+        private final PrintWriter client;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineForwarder(OutputStream file, PrintWriter client)
+        {
+            this.file = file;
+            this.client = client;
+        }
+
+        public void write(int b) throws IOException
+        {
+            file.write(b);
+            if (b == '\n') send();
+            else line.write(b);
+        }
+
+        private void send()
+        {
+            String text = new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+            line.reset();
+            if (text.length() > 0) reply(client, "LOG " + text);
+        }
+
+        public void flush() throws IOException
+        {
+            file.flush();
+        }
+
+        public void close() throws IOException
+        {
+            send();
+            file.close();
+        }
+    }
+}
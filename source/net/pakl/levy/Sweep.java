@@ -0,0 +1,383 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+
+/** Runs a parameter sweep: a grid (and/or list) of levy.prop overrides, each point with a
+ * number of replicates, scheduled on a work-stealing pool inside one JVM.
+ * <pre>  java net.pakl.levy.Sweep [sweepFile=sweep.prop] [inParallel=cores]</pre>
+ * The sweep file may contain
+ * <pre>
+ *   base = levy.prop                          settings every run starts from (default levy.prop)
+ *   directory = alpha                         where results go (default: sweep file name)
+ *   replicates = 10                           runs per point (default 1)
+ *   seed = 12345                              base seed (default: seed of the base settings)
+ *   vary.preserveParameter = 0, 0.4, 0.8      one grid axis per vary. key
+ *   points = a=0.05 stutter=2; a=0.1 stutter=1   explicit points, crossed with the grid
+ * </pre>
+ * Replicate r uses the seed of Ensemble run r at every point, so points are compared on the
+ * same wiring and noise.  Run r of point P (e.g. "preserveParameter=0.4,synmodrate=0.01")
+ * is written to directory/P/repRR/ like an Ensemble run, and when it finishes a line with
+ * its settings and summary metrics is appended to directory/index.tsv.  A sweep that is
+ * started again skips every run already in the index.  Finally directory/summary.tsv gives
+ * the mean and standard error of each metric per point. */
+public class Sweep
+{
+    /** Summary metrics of one run: mean fraction of neurons firing on the final training
+     * and final testing trials, mean cosine similarity of each final testing timestep to
+     * the same timestep of the final training trial, wall-clock time and speed. */
+    static final String [] METRICS = { "trainActivity", "testActivity", "recall", "seconds", "timestepsPerSecond" };
+
+    public static void main(String args[]) throws Exception
+    {
+        File sweepFile = new File((args.length > 0) ? args[0] : "sweep.prop");
+        int inParallel = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Properties sweep = SimulationLearning.loadProperties(sweepFile);
+        Properties base = SimulationLearning.loadProperties(new File(sweep.getProperty("base", "levy.prop").trim()));
+        String defaultDirectory = sweepFile.getName().replaceFirst("\\.[^.]*$", "");
+        File directory = new File(sweep.getProperty("directory", defaultDirectory).trim());
+        int replicates = Integer.parseInt(sweep.getProperty("replicates", "1").trim());
+        directory.mkdirs();
+
+        List<Map<String, String>> points = points(sweep);
+        List<String> keys = new ArrayList<String>();
+        for (Map<String, String> point : points)
+        {
+            for (String key : point.keySet()) if (!keys.contains(key)) keys.add(key);
+        }
+        List<String> header = new ArrayList<String>(Arrays.asList("point", "replicate", "seed"));
+        header.addAll(keys);
+        header.addAll(Arrays.asList(METRICS));
+
+        long baseSeed = baseSeed(sweep, base, directory);
+        RandomStreams streams = new RandomStreams(baseSeed);
+
+        File indexFile = new File(directory, "index.tsv");
+        List<String []> done = readIndex(indexFile, header);
+        Set<String> finished = new HashSet<String>();
+        for (String [] row : done)
+        {
+            finished.add(row[0] + "/" + row[1]);
+        }
+        final PrintWriter index = openIndex(indexFile, header, done);
+
+        System.err.println("Sweeping " + points.size() + " points x " + replicates + " replicates into " + directory
+                + ", " + inParallel + " at a time (base seed " + baseSeed + ", " + finished.size() + " runs already done)");
+        long startTime = System.currentTimeMillis();
+        ExecutorService pool = Executors.newWorkStealingPool(inParallel);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        List<String> names = new ArrayList<String>();
+        for (Map<String, String> point : points)
+        {
+            final String pointName = pointName(point);
+            for (int r = 1; r <= replicates; r++)
+            {
+                final int replicate = r;
+                if (finished.contains(pointName + "/" + replicate)) continue;
+
+                final Properties settings = new Properties();
+                settings.putAll(base);
+                settings.putAll(point);
+                settings.setProperty("seed", Long.toString(streams.simulationSeed(replicate)));
+                final List<String> values = new ArrayList<String>();
+                values.add(pointName);
+                values.add(Integer.toString(replicate));
+                values.add(settings.getProperty("seed"));
+                for (String key : keys) values.add(settings.getProperty(key, "").trim());
+
+                final File runDirectory = new File(new File(directory, pointName), String.format("rep%02d", replicate));
+                names.add(pointName + "/" + replicate);
+                results.add(pool.submit(new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        String line = runOne(settings, runDirectory, values);
+                        synchronized (index)
+                        {
+                            // "\n" on every platform, as readIndex and openIndex expect.
+                            index.print(line + "\n");
+                            index.flush();
+                        }
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++)
+        {
+            try
+            {
+                results.get(i).get();
+            }
+            catch (ExecutionException e)
+            {
+                failed++;
+                System.err.println("Run " + names.get(i) + " failed: " + e.getCause());
+            }
+        }
+        pool.shutdown();
+        index.close();
+        System.out.println("Sweep took " + ((System.currentTimeMillis() - startTime) / 1000.0d) + " seconds for "
+                + (results.size() - failed) + " runs (" + failed + " failed)");
+
+        writeSummary(new File(directory, "summary.tsv"), keys, readIndex(indexFile, header));
+        if (failed > 0) System.exit(1);
+    }
+
+    /** Every combination of the explicit points with the values of each vary. axis (axes in
+     * name order), as ordered key to value maps. */
+    static List<Map<String, String>> points(Properties sweep)
+    {
+        List<Map<String, String>> points = new ArrayList<Map<String, String>>();
+        if (sweep.getProperty("points") == null)
+        {
+            points.add(new LinkedHashMap<String, String>());
+        }
+        else
+        {
+            for (String listed : sweep.getProperty("points").split(";"))
+            {
+                Map<String, String> point = new LinkedHashMap<String, String>();
+                for (String assignment : listed.trim().split("\\s+"))
+                {
+                    if (assignment.length() == 0) continue;
+                    int equals = assignment.indexOf('=');
+                    if (equals <= 0)
+                    {
+                        throw new RuntimeException("Cannot read \"" + assignment + "\" in points (expected key=value)");
+                    }
+                    point.put(assignment.substring(0, equals), assignment.substring(equals + 1));
+                }
+                points.add(point);
+            }
+        }
+
+        for (String axis : new TreeSet<String>(sweep.stringPropertyNames()))
+        {
+            if (!axis.startsWith("vary.")) continue;
+            List<Map<String, String>> crossed = new ArrayList<Map<String, String>>();
+            for (Map<String, String> point : points)
+            {
+                for (String value : sweep.getProperty(axis).split(","))
+                {
+                    Map<String, String> next = new LinkedHashMap<String, String>(point);
+                    next.put(axis.substring("vary.".length()), value.trim());
+                    crossed.add(next);
+                }
+            }
+            points = crossed;
+        }
+        return points;
+    }
+
+    /** Directory name of a point, e.g. "preserveParameter=0.4,synmodrate=0.01", or "base". */
+    static String pointName(Map<String, String> point)
+    {
+        if (point.isEmpty()) return "base";
+        StringBuilder name = new StringBuilder();
+        for (Map.Entry<String, String> override : point.entrySet())
+        {
+            if (name.length() > 0) name.append(',');
+            name.append(override.getKey()).append('=').append(override.getValue());
+        }
+        return name.toString();
+    }
+
+    /** The sweep's seed, else the base settings' seed, else the one recorded in
+     * directory/base.prop by an earlier start, else a new random one.  The base settings
+     * with this seed are kept in directory/base.prop, so a resumed sweep continues with it. */
+    static long baseSeed(Properties sweep, Properties base, File directory) throws IOException
+    {
+        File recorded = new File(directory, "base.prop");
+        String seed = sweep.getProperty("seed", base.getProperty("seed"));
+        if (seed == null && recorded.exists())
+        {
+            seed = SimulationLearning.loadProperties(recorded).getProperty("seed");
+        }
+        long baseSeed = (seed != null) ? Long.parseLong(seed.trim()) : new Random().nextLong();
+        if (!recorded.exists())
+        {
+            Properties copy = new Properties();
+            copy.putAll(base);
+            copy.setProperty("seed", Long.toString(baseSeed));
+            OutputStream out = new FileOutputStream(recorded);
+            copy.store(out, "Base settings of the sweep");
+            out.close();
+        }
+        return baseSeed;
+    }
+
+    /** Runs one simulation and returns its index line: values followed by its metrics. */
+    static String runOne(Properties settings, File directory, List<String> values) throws Exception
+    {
+        int n = Integer.parseInt(settings.getProperty("n").trim());
+        Map<String, MemoryRaster> keep = new HashMap<String, MemoryRaster>();
+        keep.put("finaltrain", new MemoryRaster(n));
+        keep.put("finaltest", new MemoryRaster(n));
+
+        long startTime = System.currentTimeMillis();
+        long timesteps = Ensemble.runOne("Run " + values.get(0) + "/" + values.get(1), settings, directory, keep);
+        double seconds = (System.currentTimeMillis() - startTime) / 1000.0d;
+
+        MemoryRaster train = keep.get("finaltrain");
+        MemoryRaster test = keep.get("finaltest");
+        double [] metrics = { activity(train), activity(test), recall(train, test), seconds, timesteps / seconds };
+
+        StringBuilder line = new StringBuilder();
+        for (String value : values) line.append(value).append('\t');
+        for (int m = 0; m < metrics.length; m++)
+        {
+            line.append(String.format(Locale.ROOT, "%.6g", metrics[m]));
+            if (m < metrics.length - 1) line.append('\t');
+        }
+        return line.toString();
+    }
+
+    /** Mean fraction of neurons firing per row, or NaN for an empty raster. */
+    static double activity(MemoryRaster raster)
+    {
+        long fired = 0;
+        for (int row = 0; row < raster.getNumRows(); row++)
+        {
+            fired += SimilarityAnalysis.popcount(raster.getRow(row));
+        }
+        return fired / ((double) raster.getNumRows() * raster.getNumNeurons());
+    }
+
+    /** Mean cosine similarity of each row of test to the same row of train. */
+    static double recall(MemoryRaster train, MemoryRaster test)
+    {
+        int rows = Math.min(train.getNumRows(), test.getNumRows());
+        double sum = 0;
+        for (int row = 0; row < rows; row++)
+        {
+            sum += SimilarityAnalysis.cosine(train.getRow(row), test.getRow(row));
+        }
+        return sum / rows;
+    }
+
+    /** The finished rows of an existing index (empty if there is none yet), after checking
+     * that it was written with the same columns.  A line without all its fields, parsable
+     * metrics and a line end was cut short when a sweep was stopped; it is left out, with a
+     * warning, so that its run is done again. */
+    static List<String []> readIndex(File file, List<String> header) throws IOException
+    {
+        List<String []> rows = new ArrayList<String []>();
+        if (!file.exists()) return rows;
+        String [] lines = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).split("\n", -1);
+        if (!lines[0].equals(String.join("\t", header)))
+        {
+            // A header cut short means no run was recorded yet.
+            if (lines.length == 1 && String.join("\t", header).startsWith(lines[0])) return rows;
+            throw new RuntimeException(file + " has columns " + lines[0].replace('\t', ' ')
+                    + "; it belongs to a sweep over other settings, so use another directory.");
+        }
+        for (int i = 1; i < lines.length; i++)
+        {
+            if (lines[i].length() == 0) continue;
+            String [] row = lines[i].split("\t", -1);
+            if (i < lines.length - 1 && isFinished(row, header))
+            {
+                rows.add(row);
+            }
+            else
+            {
+                System.err.println(file + " line " + (i + 1) + " is unfinished and will be dropped; its run will be done again");
+            }
+        }
+        return rows;
+    }
+
+    /** Whether row has every column of header and numbers for all the metrics. */
+    static boolean isFinished(String [] row, List<String> header)
+    {
+        if (row.length != header.size()) return false;
+        for (int m = row.length - METRICS.length; m < row.length; m++)
+        {
+            try
+            {
+                Double.parseDouble(row[m]);
+            }
+            catch (NumberFormatException e)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Opens the index for appending.  Unless it holds exactly header and rows, each on a
+     * line of its own (so it is new, or readIndex dropped an unfinished line), it is first
+     * rewritten that way, through a temporary file so that stopping again loses nothing. */
+    static PrintWriter openIndex(File file, List<String> header, List<String []> rows) throws IOException
+    {
+        StringBuilder expected = new StringBuilder(String.join("\t", header)).append('\n');
+        for (String [] row : rows) expected.append(String.join("\t", row)).append('\n');
+        byte [] contents = expected.toString().getBytes(StandardCharsets.UTF_8);
+        if (!file.exists() || !Arrays.equals(Files.readAllBytes(file.toPath()), contents))
+        {
+            File temporary = new File(file.getPath() + ".tmp");
+            Files.write(temporary.toPath(), contents);
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8)));
+    }
+
+    /** Writes one line per point: its settings, number of runs, and the mean and standard
+     * error of each metric over its replicates. */
+    static void writeSummary(File file, List<String> keys, List<String []> rows) throws IOException
+    {
+        Map<String, List<String []>> byPoint = new LinkedHashMap<String, List<String []>>();
+        for (String [] row : rows)
+        {
+            if (!byPoint.containsKey(row[0])) byPoint.put(row[0], new ArrayList<String []>());
+            byPoint.get(row[0]).add(row);
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        StringBuilder header = new StringBuilder("point");
+        for (String key : keys) header.append('\t').append(key);
+        header.append("\truns");
+        for (String metric : METRICS) header.append('\t').append(metric).append('\t').append(metric).append("_se");
+        out.println(header);
+
+        int firstMetric = 3 + keys.size();
+        for (List<String []> runs : byPoint.values())
+        {
+            StringBuilder line = new StringBuilder(runs.get(0)[0]);
+            for (int k = 0; k < keys.size(); k++) line.append('\t').append(runs.get(0)[3 + k]);
+            line.append('\t').append(runs.size());
+            for (int m = 0; m < METRICS.length; m++)
+            {
+                double sum = 0;
+                double sumSquares = 0;
+                for (String [] run : runs)
+                {
+                    double x = Double.parseDouble(run[firstMetric + m]);
+                    sum += x;
+                    sumSquares += x * x;
+                }
+                double mean = sum / runs.size();
+                line.append(String.format(Locale.ROOT, "\t%.6g", mean));
+                if (runs.size() < 2)
+                {
+                    // One replicate has no spread to estimate; R reads NA as missing.
+                    line.append("\tNA");
+                }
+                else
+                {
+                    double variance = (sumSquares - sum * mean) / (runs.size() - 1);
+                    line.append(String.format(Locale.ROOT, "\t%.6g", Math.sqrt(Math.max(variance, 0) / runs.size())));
+                }
+            }
+            out.println(line);
+        }
+        out.close();
+    }
+}
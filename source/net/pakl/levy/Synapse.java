@@ -6,6 +6,7 @@ public class Synapse
     
     public double weight = 0;
     public Unit targetUnit = null;
+    public Unit sourceUnit = null;
     
     public Synapse(Unit unit, double initialWeight)
     {
@@ -0,0 +1,34 @@
+package net.pakl.levy;
+
+import java.io.*;
+
+/** Sends every row to two sinks, e.g. a file and a MemoryRaster for analysis. */
+public class TeeRaster implements RasterSink
+{
+    private final RasterSink first;
+    private final RasterSink second;
+
+    public TeeRaster(RasterSink first, RasterSink second)
+    {
+        this.first = first;
+        this.second = second;
+    }
+
+    public void beginTrial() throws IOException
+    {
+        first.beginTrial();
+        second.beginTrial();
+    }
+
+    public void record(long [] firingBits) throws IOException
+    {
+        first.record(firingBits);
+        second.record(firingBits);
+    }
+
+    public void close() throws IOException
+    {
+        first.close();
+        second.close();
+    }
+}
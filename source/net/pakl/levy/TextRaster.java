@@ -0,0 +1,48 @@
+package net.pakl.levy;
+
+import java.io.*;
+
+/** Writes rasters in the original text format, one line of "0 1 0 ..." per timestep,
+ * as read by the R scripts in README.txt. */
+public class TextRaster implements RasterSink
+{
+    private final OutputStream out;
+    private final byte [] line;
+    private final int numNeurons;
+
+    public TextRaster(File file, int numNeurons) throws IOException
+    {
+        this(new FileOutputStream(file), numNeurons);
+    }
+
+    public TextRaster(OutputStream stream, int numNeurons)
+    {
+        byte [] separator = System.lineSeparator().getBytes();
+        this.numNeurons = numNeurons;
+        out = new BufferedOutputStream(stream, 1 << 16);
+        line = new byte[2 * numNeurons + separator.length];
+        for (int i = 0; i < numNeurons; i++)
+        {
+            line[2*i+1] = ' ';
+        }
+        System.arraycopy(separator, 0, line, 2 * numNeurons, separator.length);
+    }
+
+    public void beginTrial()
+    {
+    }
+
+    public void record(long [] firingBits) throws IOException
+    {
+        for (int i = 0; i < numNeurons; i++)
+        {
+            line[2*i] = ((firingBits[i >>> 6] & (1L << i)) != 0) ? (byte) '1' : (byte) '0';
+        }
+        out.write(line);
+    }
+
+    public void close() throws IOException
+    {
+        out.close();
+    }
+}
@@ -7,6 +7,9 @@ import java.util.*;
 public class Unit implements Comparable
 {
     public ArrayList <Synapse> synapses = new ArrayList<Synapse>();
+
+    /** Synapses from other units onto this one, in the order they were made. */
+    public ArrayList <Synapse> incoming = new ArrayList<Synapse>();
     double activation = 0;
     double excitation = 0;
     double previousActivation = 0;
@@ -23,7 +26,10 @@ public class Unit implements Comparable
     
     public void projectTo(Unit u, double weight)
     {
-        synapses.add(new Synapse(u, weight));
+        Synapse s = new Synapse(u, weight);
+        s.sourceUnit = this;
+        synapses.add(s);
+        u.incoming.add(s);
     }
     
     public boolean projectsTo(Unit u)
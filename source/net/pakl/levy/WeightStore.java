@@ -0,0 +1,389 @@
+package net.pakl.levy;
+
+import java.nio.*;
+import java.util.*;
+
+/** Synaptic weights of an ArrayNet, indexed like its targets array, at one of several
+ * precisions ("double", "float" or "fixed16").  The inner loops of feedforward and
+ * learning live here, so each precision accumulates and learns in its own arithmetic
+ * and the per-synapse work stays free of virtual calls. */
+public abstract class WeightStore
+{
+    public static WeightStore create(String precision, int size, double initialWeight)
+    {
+        WeightStore store;
+        if (precision == null || precision.equalsIgnoreCase("double")) store = new DoubleWeights(size);
+        else if (precision.equalsIgnoreCase("float")) store = new FloatWeights(size);
+        else if (precision.equalsIgnoreCase("fixed16")) store = new Fixed16Weights(size);
+        else throw new RuntimeException("Unknown weightPrecision \"" + precision + "\" (expected double, float or fixed16)");
+        store.fill(initialWeight);
+        return store;
+    }
+
+    public abstract int size();
+
+    /** The name create() accepts for this precision. */
+    public abstract String getPrecision();
+
+    public abstract int getBytesPerWeight();
+
+    /** Copies the raw stored values of synapses from..from+count-1 into buffer. */
+    public abstract void put(ByteBuffer buffer, int from, int count);
+
+    /** Replaces the raw stored values of synapses from..from+count-1 with values from buffer. */
+    public abstract void get(ByteBuffer buffer, int from, int count);
+
+    public abstract double get(int synapse);
+
+    public abstract void set(int synapse, double weight);
+
+    public void fill(double weight)
+    {
+        for (int s = 0; s < size(); s++) set(s, weight);
+    }
+
+    /** The value accumulate() adds per unit of weight is 1/excitationScale(); multiply the
+     * accumulated excitation by this before comparing it with the inhibition terms. */
+    public double excitationScale()
+    {
+        return 1.0;
+    }
+
+    /** Adds the weights of synapses from..to-1 onto excitation[targets[s]]. */
+    public abstract void accumulate(int from, int to, int [] targets, double [] excitation);
+
+    /** Takes back what accumulate() added.  Only fixed16, whose sums are whole numbers of
+     * weight units, gets back exactly what it had before the matching accumulate(). */
+    public abstract void subtract(int from, int to, int [] targets, double [] excitation);
+
+    /** Levy's rule for synapses from..to-1 of one presynaptic neuron: every synapse onto a
+     * firing neuron moves toward the presynaptic previous activation, w += rate * (pre - w).
+     * Returns the number of synapses modified. */
+    public abstract int learn(int from, int to, int [] targets, boolean [] fired, double rate, double pre);
+
+    /** accumulate() on synapses from..from+count-1 whose targets are given separately, in
+     * rowTargets[0..count-1] (procedural connectivity keeps no targets array). */
+    public abstract void accumulateRow(int from, int count, int [] rowTargets, double [] excitation);
+
+    /** subtract() on synapses from..from+count-1 whose targets are rowTargets[0..count-1]. */
+    public abstract void subtractRow(int from, int count, int [] rowTargets, double [] excitation);
+
+    /** learn() on synapses from..from+count-1 whose targets are rowTargets[0..count-1]. */
+    public abstract int learnRow(int from, int count, int [] rowTargets, boolean [] fired, double rate, double pre);
+
+    /** learn() on the incoming synapses of one firing neuron: synapses[from..to-1], whose
+     * presynaptic neurons are sources[from..to-1], each move toward the previous activation
+     * of their own presynaptic neuron.  Every one is modified. */
+    public abstract void learnIncoming(int from, int to, int [] synapses, int [] sources, double [] previousActivation, double rate);
+
+    static class DoubleWeights extends WeightStore
+    {
+        final double [] w;
+
+        DoubleWeights(int size)
+        {
+            w = new double[size];
+        }
+
+        public int size() { return w.length; }
+
+        public String getPrecision() { return "double"; }
+
+        public int getBytesPerWeight() { return 8; }
+
+        public void put(ByteBuffer buffer, int from, int count) { buffer.asDoubleBuffer().put(w, from, count); }
+
+        public void get(ByteBuffer buffer, int from, int count) { buffer.asDoubleBuffer().get(w, from, count); }
+
+        public double get(int synapse) { return w[synapse]; }
+
+        public void set(int synapse, double weight) { w[synapse] = weight; }
+
+        public void fill(double weight) { Arrays.fill(w, weight); }
+
+        public void accumulate(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] += w[s];
+            }
+        }
+
+        public void subtract(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] -= w[s];
+            }
+        }
+
+        public int learn(int from, int to, int [] targets, boolean [] fired, double rate, double pre)
+        {
+            int modified = 0;
+            for (int s = from; s < to; s++)
+            {
+                if (fired[targets[s]])
+                {
+                    w[s] = w[s] + rate * (pre - w[s]);
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void accumulateRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] += w[from + j];
+            }
+        }
+
+        public void subtractRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] -= w[from + j];
+            }
+        }
+
+        public int learnRow(int from, int count, int [] rowTargets, boolean [] fired, double rate, double pre)
+        {
+            int modified = 0;
+            for (int j = 0; j < count; j++)
+            {
+                if (fired[rowTargets[j]])
+                {
+                    int s = from + j;
+                    w[s] = w[s] + rate * (pre - w[s]);
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void learnIncoming(int from, int to, int [] synapses, int [] sources, double [] previousActivation, double rate)
+        {
+            for (int j = from; j < to; j++)
+            {
+                int s = synapses[j];
+                w[s] = w[s] + rate * (previousActivation[sources[j]] - w[s]);
+            }
+        }
+    }
+
+    /** 32-bit weights; learning runs in float arithmetic, excitation is summed in double. */
+    static class FloatWeights extends WeightStore
+    {
+        final float [] w;
+
+        FloatWeights(int size)
+        {
+            w = new float[size];
+        }
+
+        public int size() { return w.length; }
+
+        public String getPrecision() { return "float"; }
+
+        public int getBytesPerWeight() { return 4; }
+
+        public void put(ByteBuffer buffer, int from, int count) { buffer.asFloatBuffer().put(w, from, count); }
+
+        public void get(ByteBuffer buffer, int from, int count) { buffer.asFloatBuffer().get(w, from, count); }
+
+        public double get(int synapse) { return w[synapse]; }
+
+        public void set(int synapse, double weight) { w[synapse] = (float) weight; }
+
+        public void fill(double weight) { Arrays.fill(w, (float) weight); }
+
+        public void accumulate(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] += w[s];
+            }
+        }
+
+        public void subtract(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] -= w[s];
+            }
+        }
+
+        public int learn(int from, int to, int [] targets, boolean [] fired, double rate, double pre)
+        {
+            int modified = 0;
+            float r = (float) rate;
+            float p = (float) pre;
+            for (int s = from; s < to; s++)
+            {
+                if (fired[targets[s]])
+                {
+                    w[s] = w[s] + r * (p - w[s]);
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void accumulateRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] += w[from + j];
+            }
+        }
+
+        public void subtractRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] -= w[from + j];
+            }
+        }
+
+        public int learnRow(int from, int count, int [] rowTargets, boolean [] fired, double rate, double pre)
+        {
+            float r = (float) rate;
+            float p = (float) pre;
+            int modified = 0;
+            for (int j = 0; j < count; j++)
+            {
+                if (fired[rowTargets[j]])
+                {
+                    int s = from + j;
+                    w[s] = w[s] + r * (p - w[s]);
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void learnIncoming(int from, int to, int [] synapses, int [] sources, double [] previousActivation, double rate)
+        {
+            float r = (float) rate;
+            for (int j = from; j < to; j++)
+            {
+                int s = synapses[j];
+                w[s] = w[s] + r * ((float) previousActivation[sources[j]] - w[s]);
+            }
+        }
+    }
+
+    /** 16-bit unsigned fixed point: a stored value q means a weight of q/65535, so weights
+     * are limited to [0,1].  Excitation is summed in these integer units, which is exact in
+     * a double, and learning rounds each step to the nearest unit; a weight therefore stops
+     * moving once it is within about 0.5/rate units of its target. */
+    static class Fixed16Weights extends WeightStore
+    {
+        static final double ONE = 65535.0;
+
+        final char [] w;
+
+        Fixed16Weights(int size)
+        {
+            w = new char[size];
+        }
+
+        public int size() { return w.length; }
+
+        public String getPrecision() { return "fixed16"; }
+
+        public int getBytesPerWeight() { return 2; }
+
+        public void put(ByteBuffer buffer, int from, int count) { buffer.asCharBuffer().put(w, from, count); }
+
+        public void get(ByteBuffer buffer, int from, int count) { buffer.asCharBuffer().get(w, from, count); }
+
+        public double get(int synapse) { return w[synapse] / ONE; }
+
+        public void set(int synapse, double weight) { w[synapse] = quantize(weight * ONE); }
+
+        public void fill(double weight) { Arrays.fill(w, quantize(weight * ONE)); }
+
+        public double excitationScale() { return 1.0 / ONE; }
+
+        static char quantize(double units)
+        {
+            if (units <= 0) return 0;
+            if (units >= ONE) return (char) 65535;
+            return (char) Math.rint(units);
+        }
+
+        public void accumulate(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] += w[s];
+            }
+        }
+
+        public void subtract(int from, int to, int [] targets, double [] excitation)
+        {
+            for (int s = from; s < to; s++)
+            {
+                excitation[targets[s]] -= w[s];
+            }
+        }
+
+        public int learn(int from, int to, int [] targets, boolean [] fired, double rate, double pre)
+        {
+            int modified = 0;
+            double target = pre * ONE;
+            for (int s = from; s < to; s++)
+            {
+                if (fired[targets[s]])
+                {
+                    w[s] = quantize(w[s] + Math.rint(rate * (target - w[s])));
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void accumulateRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] += w[from + j];
+            }
+        }
+
+        public void subtractRow(int from, int count, int [] rowTargets, double [] excitation)
+        {
+            for (int j = 0; j < count; j++)
+            {
+                excitation[rowTargets[j]] -= w[from + j];
+            }
+        }
+
+        public int learnRow(int from, int count, int [] rowTargets, boolean [] fired, double rate, double pre)
+        {
+            double target = pre * ONE;
+            int modified = 0;
+            for (int j = 0; j < count; j++)
+            {
+                if (fired[rowTargets[j]])
+                {
+                    int s = from + j;
+                    w[s] = quantize(w[s] + Math.rint(rate * (target - w[s])));
+                    modified++;
+                }
+            }
+            return modified;
+        }
+
+        public void learnIncoming(int from, int to, int [] synapses, int [] sources, double [] previousActivation, double rate)
+        {
+            for (int j = from; j < to; j++)
+            {
+                int s = synapses[j];
+                w[s] = quantize(w[s] + Math.rint(rate * (previousActivation[sources[j]] * ONE - w[s])));
+            }
+        }
+    }
+}
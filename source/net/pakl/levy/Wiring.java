@@ -0,0 +1,117 @@
+package net.pakl.levy;
+
+import java.util.*;
+
+/** Draws the random recurrent connectivity of a Levy network.  Every neuron projects to
+ * exactly synapsesPerNeuron distinct other neurons, chosen with Floyd's algorithm in
+ * O(synapsesPerNeuron) draws.  Each neuron draws from its own WIRING stream, so the
+ * result is the same for any number of threads. */
+public class Wiring
+{
+    /** Most synapses one array can hold (the JVM's limit on array length). */
+    static final long MAX_STORED_SYNAPSES = Integer.MAX_VALUE - 8;
+
+    /** Returns the targets of neuron i in result[i*synapsesPerNeuron .. (i+1)*synapsesPerNeuron-1],
+     * sorted ascending. */
+    public static int[] connect(final int numNeurons, final int synapsesPerNeuron, final RandomStreams random, WorkerPool pool)
+    {
+        checkStored(numNeurons, synapsesPerNeuron);
+        final int [] result = new int[numNeurons * synapsesPerNeuron];
+        WorkerPool.Range wireNeurons = new WorkerPool.Range()
+        {
+            public void run(int from, int to)
+            {
+                long [] chosen = new long[(numNeurons + 63) >>> 6];
+                for (int i = from; i < to; i++)
+                {
+                    connectNeuron(i, numNeurons, synapsesPerNeuron, random.stream(RandomStreams.Purpose.WIRING, i),
+                            chosen, result, i * synapsesPerNeuron);
+                }
+            }
+        };
+        if (pool == null)
+        {
+            wireNeurons.run(0, numNeurons);
+        }
+        else
+        {
+            pool.forEachRange(0, numNeurons, wireNeurons);
+        }
+        return result;
+    }
+
+    /** check(), and throws unless all numNeurons * synapsesPerNeuron synapses fit in one
+     * array, as the object and array engines store them. */
+    static void checkStored(int numNeurons, int synapsesPerNeuron)
+    {
+        check(numNeurons, synapsesPerNeuron);
+        long synapses = (long) numNeurons * synapsesPerNeuron;
+        if (synapses > MAX_STORED_SYNAPSES)
+        {
+            throw new RuntimeException(numNeurons + " neurons with " + synapsesPerNeuron + " synapses each make "
+                    + synapses + " synapses, more than one array can hold; lower connectionProbability"
+                    + " or use engine = procedural.");
+        }
+    }
+
+    /** Throws unless every neuron can have synapsesPerNeuron distinct targets other than itself. */
+    static void check(int numNeurons, int synapsesPerNeuron)
+    {
+        if (synapsesPerNeuron > numNeurons - 1)
+        {
+            throw new RuntimeException("Cannot connect each of " + numNeurons + " neurons to "
+                    + synapsesPerNeuron + " others; lower connectionProbability.");
+        }
+    }
+
+    /** Writes k distinct targets for neuron i, excluding i itself, into out[offset .. offset+k-1]
+     * in ascending order.  chosen must be all zero on entry and is left all zero. */
+    static void connectNeuron(int i, int numNeurons, int k, SplittableRandom random, long [] chosen, int [] out, int offset)
+    {
+        drawTargets(i, numNeurons, k, random, chosen, out, offset);
+        int n;
+        if (k < chosen.length)
+        {
+            // Sparse row: sorting the k targets is cheaper than walking the whole bitset.
+            Arrays.sort(out, offset, offset + k);
+            for (n = offset; n < offset + k; n++)
+            {
+                chosen[out[n] >>> 6] = 0;
+            }
+        }
+        else
+        {
+            n = offset;
+            for (int w = 0; w < chosen.length; w++)
+            {
+                long bits = chosen[w];
+                while (bits != 0)
+                {
+                    out[n++] = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    bits &= bits - 1;
+                }
+                chosen[w] = 0;
+            }
+        }
+    }
+
+    /** Writes the k distinct targets of neuron i into out[offset .. offset+k-1] in the order
+     * they are drawn, setting their bits in chosen (which must be all zero on entry). */
+    static void drawTargets(int i, int numNeurons, int k, SplittableRandom random, long [] chosen, int [] out, int offset)
+    {
+        // Floyd: sample k of the numNeurons-1 candidates, candidate c standing for neuron c (c < i) or c+1.
+        int candidates = numNeurons - 1;
+        int n = offset;
+        for (int j = candidates - k; j < candidates; j++)
+        {
+            int c = random.nextInt(j + 1);
+            int target = (c < i) ? c : c + 1;
+            if ((chosen[target >>> 6] & (1L << target)) != 0)
+            {
+                target = (j < i) ? j : j + 1;
+            }
+            chosen[target >>> 6] |= 1L << target;
+            out[n++] = target;
+        }
+    }
+}
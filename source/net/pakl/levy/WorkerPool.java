@@ -0,0 +1,118 @@
+package net.pakl.levy;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Splits an index range into one contiguous chunk per thread, run by the calling thread
+ * and a fixed set of size()-1 daemon threads.  Chunk boundaries depend only on the range
+ * and the number of threads. */
+public class WorkerPool
+{
+    /** Work on the half-open index range [from, to). */
+    public interface Range
+    {
+        public void run(int from, int to);
+    }
+
+    private final int numThreads;
+    /** The threads besides the caller; null when there are none. */
+    private final ExecutorService executor;
+    private final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+    public WorkerPool(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+        if (this.numThreads == 1)
+        {
+            this.executor = null;
+            return;
+        }
+        this.executor = Executors.newFixedThreadPool(this.numThreads - 1, new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "levy-worker");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int size()
+    {
+        return numThreads;
+    }
+
+    /** Runs body over [from, to) split into size() chunks and returns once all chunks are done.
+     * The calling thread works on the first chunk itself. */
+    public void forEachRange(int from, int to, final Range body)
+    {
+        int length = to - from;
+        int chunks = Math.min(numThreads, Math.max(1, length));
+        synchronized (pending)
+        {
+            pending.clear();
+            for (int c = 1; c < chunks; c++)
+            {
+                final int lo = from + (int) ((long) length * c / chunks);
+                final int hi = from + (int) ((long) length * (c+1) / chunks);
+                pending.add(executor.submit(new Runnable()
+                {
+                    public void run()
+                    {
+                        body.run(lo, hi);
+                    }
+                }));
+            }
+            boolean ran = false;
+            try
+            {
+                body.run(from, from + (int) ((long) length / chunks));
+                ran = true;
+            }
+            finally
+            {
+                // Even if the first chunk failed, no other may still be writing on return.
+                RuntimeException failure = awaitPending();
+                if (ran && failure != null) throw failure;
+            }
+        }
+    }
+
+    /** Waits for every pending chunk, also after one has failed or the wait was interrupted,
+     * and returns the first failure (or null). */
+    private RuntimeException awaitPending()
+    {
+        RuntimeException failure = null;
+        boolean interrupted = false;
+        for (Future<?> f : pending)
+        {
+            while (true)
+            {
+                try
+                {
+                    f.get();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                    if (failure == null) failure = new RuntimeException("Interrupted while waiting for worker threads", e);
+                }
+                catch (ExecutionException e)
+                {
+                    if (failure == null) failure = new RuntimeException("Worker thread failed: " + e.getCause(), e.getCause());
+                    break;
+                }
+            }
+        }
+        pending.clear();
+        if (interrupted) Thread.currentThread().interrupt();
+        return failure;
+    }
+
+    public void shutdown()
+    {
+        if (executor != null) executor.shutdown();
+    }
+}
@@ -0,0 +1,260 @@
+package net.pakl.levy;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** How a DistributedNet reaches its workers: one ordered, reliable pair of streams per
+ * worker, which open() sets up in in[] and out[] (worker w owns the w-th range of
+ * neurons).  Every transport so far speaks over sockets:
+ * <pre>
+ *   process   starts each worker as a child JVM on this machine (the default)
+ *   threads   runs the workers as threads of this JVM, e.g. to debug the protocol
+ *   listen    waits for workers started by hand, possibly on other machines, with
+ *             java -cp ... net.pakl.levy.DistributedWorker coordinatorHost workerPort
+ * </pre> */
+public abstract class WorkerTransport
+{
+    DataInputStream [] in;
+    DataOutputStream [] out;
+
+    /** Port the coordinator listens on (0 picks a free one) and, for process, extra JVM
+     * options for the workers, e.g. "-Xmx8g". */
+    int port = 0;
+    String workerOptions = "";
+
+    public static WorkerTransport create(String name)
+    {
+        if (name == null || name.trim().equalsIgnoreCase("process")) return new Processes();
+        if (name.trim().equalsIgnoreCase("threads")) return new Threads();
+        if (name.trim().equalsIgnoreCase("listen")) return new Listen();
+        throw new RuntimeException("Unknown worker transport \"" + name + "\" (expected process, threads or listen)");
+    }
+
+    /** Starts (or waits for) numWorkers workers and connects to each. */
+    public abstract void open(int numWorkers) throws IOException;
+
+    /** Why a worker stopped, if the transport can tell, for reporting a failed read. */
+    Exception failure()
+    {
+        return null;
+    }
+
+    /** Tells the workers to stop and releases the connections. */
+    public abstract void close();
+
+    /** Listens on a loopback or wildcard socket and takes the first numWorkers connections,
+     * in the order they arrive, as the workers; subclasses decide how workers are started. */
+    static abstract class Sockets extends WorkerTransport
+    {
+        /** How long open() waits for a connection before checking that the workers still run. */
+        static final int ACCEPT_CHECK_MILLIS = 500;
+
+        private final List<Socket> sockets = new ArrayList<Socket>();
+
+        /** Starts the workers, which must connect to port. */
+        abstract void startWorkers(int numWorkers, int port) throws IOException;
+
+        /** Address to listen on. */
+        InetAddress bindAddress() throws IOException
+        {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        /** Throws if a worker has stopped before connecting, so open() does not wait for it
+         * forever; workers started by hand cannot be checked. */
+        void checkWorkers() throws IOException
+        {
+        }
+
+        public void open(int numWorkers) throws IOException
+        {
+            ServerSocket server = new ServerSocket(port, numWorkers, bindAddress());
+            try
+            {
+                server.setSoTimeout(ACCEPT_CHECK_MILLIS);
+                startWorkers(numWorkers, server.getLocalPort());
+                in = new DataInputStream[numWorkers];
+                out = new DataOutputStream[numWorkers];
+                for (int w = 0; w < numWorkers; w++)
+                {
+                    Socket socket = accept(server);
+                    socket.setTcpNoDelay(true);
+                    sockets.add(socket);
+                    in[w] = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    out[w] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                }
+            }
+            finally
+            {
+                server.close();
+            }
+        }
+
+        private Socket accept(ServerSocket server) throws IOException
+        {
+            while (true)
+            {
+                try
+                {
+                    return server.accept();
+                }
+                catch (SocketTimeoutException e)
+                {
+                    checkWorkers();
+                }
+            }
+        }
+
+        public void close()
+        {
+            for (int w = 0; out != null && w < out.length && out[w] != null; w++)
+            {
+                try
+                {
+                    out[w].write(DistributedWorker.QUIT);
+                    out[w].flush();
+                }
+                catch (IOException e)
+                {
+                    // The worker is gone already.
+                }
+            }
+            for (Socket socket : sockets)
+            {
+                try
+                {
+                    socket.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+            sockets.clear();
+        }
+    }
+
+    static class Processes extends Sockets
+    {
+        /** How long close() waits for a worker to exit before killing it. */
+        static final long EXIT_SECONDS = 10;
+
+        private final List<Process> processes = new ArrayList<Process>();
+
+        void startWorkers(int numWorkers, int port) throws IOException
+        {
+            File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+            for (int w = 0; w < numWorkers; w++)
+            {
+                List<String> command = new ArrayList<String>();
+                command.add(java.getPath());
+                if (workerOptions.trim().length() > 0) command.addAll(Arrays.asList(workerOptions.trim().split("\\s+")));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(DistributedWorker.class.getName());
+                command.add("127.0.0.1");
+                command.add(Integer.toString(port));
+                processes.add(new ProcessBuilder(command).inheritIO().start());
+            }
+        }
+
+        void checkWorkers() throws IOException
+        {
+            for (int w = 0; w < processes.size(); w++)
+            {
+                Process process = processes.get(w);
+                if (!process.isAlive())
+                {
+                    throw new IOException("Worker process " + w + " exited with status " + process.exitValue()
+                            + " before connecting (check workerOptions)");
+                }
+            }
+        }
+
+        public void close()
+        {
+            super.close();
+            for (Process process : processes)
+            {
+                try
+                {
+                    if (!process.waitFor(EXIT_SECONDS, TimeUnit.SECONDS)) process.destroyForcibly();
+                }
+                catch (InterruptedException e)
+                {
+                    process.destroyForcibly();
+                    Thread.currentThread().interrupt();
+                }
+            }
+            processes.clear();
+        }
+    }
+
+    static class Threads extends Sockets
+    {
+        /** The first exception a worker thread ended with, recorded before the thread
+         * closes its socket so that the coordinator's failed read can report it. */
+        private volatile Exception failure;
+
+        void startWorkers(int numWorkers, final int port)
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                Thread t = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        Socket socket = null;
+                        try
+                        {
+                            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                            socket.setTcpNoDelay(true);
+                            new DistributedWorker(socket.getInputStream(), socket.getOutputStream()).serve();
+                        }
+                        catch (Exception e)
+                        {
+                            System.err.println("Distributed worker thread failed: " + e);
+                            if (failure == null) failure = e;
+                        }
+                        finally
+                        {
+                            try
+                            {
+                                if (socket != null) socket.close();
+                            }
+                            catch (IOException e)
+                            {
+                            }
+                        }
+                    }
+                }, "levy-distributed-worker");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        void checkWorkers() throws IOException
+        {
+            if (failure != null) throw new IOException("Worker thread failed: " + failure, failure);
+        }
+
+        Exception failure()
+        {
+            return failure;
+        }
+    }
+
+    static class Listen extends Sockets
+    {
+        InetAddress bindAddress()
+        {
+            return null;
+        }
+
+        void startWorkers(int numWorkers, int port)
+        {
+            System.err.println("Waiting for " + numWorkers + " workers on port " + port);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package net.pakl.levy;
+
+import jdk.incubator.vector.*;
+
+/** Kernels whose arithmetic runs on SIMD registers through the Java Vector API, a
+ * preferred-width vector of neurons at a time (8 doubles with AVX-512, 4 with AVX2).  Each
+ * update is split in two passes: a vector pass moves activation into previousActivation,
+ * decays activation and (inhibitory mode) turns excitation into the ratio compared with
+ * 0.5, then a plain pass over the booleans decides which neurons fire, resets them and
+ * lists them.  Converting between vector masks and boolean arrays is not compiled to
+ * vector instructions on JDK 17, so that part stays scalar.  Every lane does the
+ * operations of the scalar loop, so the results are bit-for-bit the same.
+ *
+ * Learning is left to the scalar code: its weights are reached through random target
+ * indices, and on JDK 17 gathering the fired flags or scattering the weights costs more
+ * than the arithmetic saves (see KernelBenchmark in bench). */
+public class VectorKernels extends Kernels
+{
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public String getName()
+    {
+        return "vector (" + SPECIES.length() + " doubles)";
+    }
+
+    public int inhibitoryUpdate(int n, double [] excitation, boolean [] externallyFired, double scale,
+            double feedback, double feedforward, double shunting, double preserve,
+            double [] activation, double [] previousActivation, boolean [] fired, int [] firedList)
+    {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        for (; i < upper; i += SPECIES.length())
+        {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, activation, i);
+            a.intoArray(previousActivation, i);
+            a.mul(preserve).intoArray(activation, i);
+            DoubleVector e = DoubleVector.fromArray(SPECIES, excitation, i).mul(scale);
+            e.div(e.add(feedback).add(feedforward).add(shunting)).intoArray(excitation, i);
+        }
+        for (; i < n; i++)
+        {
+            previousActivation[i] = activation[i];
+            activation[i] = activation[i] * preserve;
+            double e = excitation[i] * scale;
+            excitation[i] = e / (e + feedback + feedforward + shunting);
+        }
+
+        // excitation now holds the ratio.
+        int count = 0;
+        for (i = 0; i < n; i++)
+        {
+            boolean fires = externallyFired[i] || excitation[i] > 0.5;
+            fired[i] = fires;
+            excitation[i] = 0;
+            externallyFired[i] = false;
+            if (fires)
+            {
+                activation[i] = 1.0;
+                firedList[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    public int competitiveUpdate(int n, boolean [] winners, double [] excitation, double preserve,
+            double [] activation, double [] previousActivation, boolean [] fired, int [] firedList)
+    {
+        int i = 0;
+        int upper = SPECIES.loopBound(n);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        for (; i < upper; i += SPECIES.length())
+        {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, activation, i);
+            a.intoArray(previousActivation, i);
+            a.mul(preserve).intoArray(activation, i);
+            zero.intoArray(excitation, i);
+        }
+        for (; i < n; i++)
+        {
+            previousActivation[i] = activation[i];
+            activation[i] = activation[i] * preserve;
+            excitation[i] = 0;
+        }
+
+        int count = 0;
+        for (i = 0; i < n; i++)
+        {
+            boolean fires = winners[i];
+            fired[i] = fires;
+            if (fires)
+            {
+                activation[i] = 1.0;
+                firedList[count++] = i;
+            }
+        }
+        return count;
+    }
+}